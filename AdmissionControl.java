@@ -0,0 +1,165 @@
+package com.mycompany.tcpechoserver;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Limits on what clients may ask of the server, shared by every engine. Only a
+// request over --max-in-flight waits, in a queue of at most --max-queued; every
+// other refusal is immediate. Refusals are counted in STATS.
+//
+//   --max-connections    a connection beyond it is told the server is busy and closed
+//   --max-in-flight      requests running at once across all connections; more wait for a turn
+//   --max-queued         requests waiting for a turn; more are refused at once
+//   --rate-limit         requests a second per connection, in bursts of up to a second's worth
+//   --max-request-bytes  a longer request line closes the connection
+//   --idle-timeout       a connection silent this long is closed, unless it is subscribed
+//   --max-queued-jobs    EARLY LECTURES and AUTO SCHEDULE jobs waiting behind the running one
+//
+// Lines of an IMPORT or BATCH count as the one request. STOP and UNSUBSCRIBE
+// only release resources, so they are never refused.
+class AdmissionControl {
+    static final int DEFAULT_MAX_CONNECTIONS = 1024;
+    static final int DEFAULT_MAX_IN_FLIGHT = 256;
+    static final int DEFAULT_MAX_QUEUED = 1024;
+    static final int DEFAULT_MAX_REQUEST_BYTES = 64 * 1024;
+    static final long DEFAULT_IDLE_TIMEOUT_SECONDS = 300;
+    static final int DEFAULT_MAX_QUEUED_JOBS = 32;
+
+    enum Refusal {
+        CONNECTION("connections"),
+        BUSY("busy"),
+        RATE("rate limited"),
+        SIZE("oversized"),
+        JOB("jobs"),
+        IDLE("idle"); // connections closed by the idle timeout
+
+        final String label;
+
+        Refusal(String label) {
+            this.label = label;
+        }
+    }
+
+    private static int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private static int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private static int maxQueued = DEFAULT_MAX_QUEUED;
+    private static int rateLimit; // 0 = none
+    private static int maxRequestBytes = DEFAULT_MAX_REQUEST_BYTES;
+    private static long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_SECONDS * 1000;
+    private static final AtomicInteger connections = new AtomicInteger();
+    private static final AtomicInteger running = new AtomicInteger();
+    private static final AtomicInteger waiting = new AtomicInteger();
+    private static final Object turn = new Object(); // waiters are woken on it by endWork
+
+    // Called at startup, before any connection is accepted
+    static void configure(ServerOptions options) {
+        maxConnections = options.maxConnections;
+        maxInFlight = options.maxInFlight;
+        maxQueued = options.maxQueued;
+        rateLimit = options.rateLimit;
+        maxRequestBytes = options.maxRequestBytes;
+        idleTimeoutMillis = options.idleTimeoutSeconds * 1000;
+        BackgroundJobs.limitQueue(options.maxQueuedJobs);
+    }
+
+    // False, and the connection should be closed with connectionRefused(), once
+    // maxConnections are open. A true is paired with connectionClosed.
+    static boolean admitConnection() {
+        if (connections.incrementAndGet() <= maxConnections) return true;
+        connections.decrementAndGet();
+        ServerMetrics.refused(Refusal.CONNECTION);
+        return false;
+    }
+
+    static void connectionClosed() {
+        connections.decrementAndGet();
+    }
+
+    static String connectionRefused() {
+        return "ERROR: Server busy, " + maxConnections + " connections are open. Try again later.";
+    }
+
+    // Why the request cannot run now, or null; a null is paired with endWork
+    static String startWork(RateLimit rate, Request request) {
+        if (request.action == Request.Action.STOP || request.action == Request.Action.UNSUBSCRIBE) {
+            running.incrementAndGet();
+            return null;
+        }
+        if (!rate.tryAcquire()) {
+            ServerMetrics.refused(Refusal.RATE);
+            return "ERROR: Rate limit of " + rateLimit + " requests a second exceeded.";
+        }
+        return startWork();
+    }
+
+    // Why a request's work cannot start, or null once it may; a null is paired with endWork.
+    // A request over maxInFlight blocks its thread here until a running one ends.
+    static String startWork() {
+        if (tryStart()) return null;
+        if (waiting.incrementAndGet() > maxQueued) {
+            waiting.decrementAndGet();
+            ServerMetrics.refused(Refusal.BUSY);
+            return "ERROR: Server busy, " + maxInFlight + " requests are running and " + maxQueued + " waiting. Try again later.";
+        }
+        try {
+            synchronized (turn) {
+                while (!tryStart()) {
+                    turn.wait();
+                }
+            }
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ServerMetrics.refused(Refusal.BUSY);
+            return "ERROR: Server busy, stopped waiting for a turn.";
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    private static boolean tryStart() {
+        if (running.incrementAndGet() <= maxInFlight) return true;
+        running.decrementAndGet();
+        return false;
+    }
+
+    // A waiter counts itself before it tries, so a slot freed before the count is
+    // seen is taken by that try, and one freed after is signalled
+    static void endWork() {
+        running.decrementAndGet();
+        if (waiting.get() > 0) {
+            synchronized (turn) {
+                turn.notify();
+            }
+        }
+    }
+
+    static int maxRequestBytes() {
+        return maxRequestBytes;
+    }
+
+    static String requestTooLong() {
+        ServerMetrics.refused(Refusal.SIZE);
+        return "ERROR: Request longer than " + maxRequestBytes + " bytes, closing the connection.";
+    }
+
+    // 0 when connections never time out
+    static long idleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    // Token bucket for one connection, used only by the thread serving it
+    static final class RateLimit {
+        private double tokens = rateLimit;
+        private long refilled = System.nanoTime();
+
+        boolean tryAcquire() {
+            if (rateLimit == 0) return true;
+            long now = System.nanoTime();
+            tokens = Math.min(rateLimit, tokens + (now - refilled) * rateLimit / 1e9);
+            refilled = now;
+            if (tokens < 1) return false;
+            tokens--;
+            return true;
+        }
+    }
+}
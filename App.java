@@ -6,10 +6,12 @@ import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.net.UnknownHostException;
 import java.util.HashMap;
 import java.util.Map;
 
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
@@ -17,7 +19,6 @@ import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.TextField;
 import javafx.scene.input.KeyEvent;
-import javafx.scene.layout.GridPane;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
 
@@ -27,9 +28,8 @@ import javafx.stage.Stage;
 public class App extends Application {
     private static InetAddress host;
     private static final int PORT = 1234;
-    private Socket link;
-    private BufferedReader in;
-    private PrintWriter out;
+    private static final long FEED_RETRY_MILLIS = 2000;
+    private ServerConnection connection;
 
     //GUI Elements
     private Label responseLabel = new Label("Response From Server Will Display Here");
@@ -40,18 +40,23 @@ public class App extends Application {
     private ComboBox<String> actionBox = new ComboBox<>();
     private Button sendButton = new Button("Send Request");
     private Button stopButton = new Button("EXIT");
-    private Stage schedulePopup = null;
+    private ScheduleView scheduleView;
+
+    //true while the SUBSCRIBE feed is keeping scheduleView up to date
+    private volatile boolean feedLive;
+    private boolean feedDown; //only touched by the feed thread, so an outage is reported once
 
 
     @Override
     public void start(Stage stage) {
         //initialize dropdown menu
-        actionBox.getItems().addAll("Add Lecture", "Remove Lecture", "Display Schedule","Early Lectures", "Other");
+        actionBox.getItems().addAll("Add Lecture", "Remove Lecture", "Display Schedule","Early Lectures", "Find Free", "Other");
         actionBox.setValue("Add Lecture");
 
         //initialize day menu
-        dayBox.getItems().addAll("Monday", "Tuesday", "Wednesday", "Thursday", "Friday");
+        dayBox.getItems().addAll(ScheduleView.DAYS);
         dayBox.setValue("Monday");
+        scheduleView = new ScheduleView();
 
         //set placeholders
         timeField.setPromptText("Enter Time (HH:MM)");
@@ -70,50 +75,114 @@ public class App extends Application {
         stage.setTitle("Lecture Scheduler Client");
         stage.show();
 
-        //establish a connection
+        //establish a connection - it connects (and reconnects) in the background
         try {
             host = InetAddress.getLocalHost();
-            link = new Socket(host, PORT);
-            in = new BufferedReader(new InputStreamReader(link.getInputStream()));
-            out = new PrintWriter(link.getOutputStream(), true);
-        } catch (IOException e) {
+            connection = new ServerConnection(host, PORT, status -> Platform.runLater(() -> responseLabel.setText(status)));
+            startFeed();
+        } catch (UnknownHostException e) {
             responseLabel.setText("Error: Unable to connect to server.");
         }
     }
 
+    //second connection that subscribes to schedule changes, so the grid is
+    //updated from small events instead of re-downloading DISPLAY SCHEDULE
+    private void startFeed() {
+        Thread feedThread = new Thread(() -> {
+            while (true) {
+                readFeed();
+                feedLive = false;
+                try {
+                    Thread.sleep(FEED_RETRY_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "schedule-feed");
+        feedThread.setDaemon(true);
+        feedThread.start();
+    }
+
+    //reads events until the feed connection drops
+    private void readFeed() {
+        try (Socket feedLink = new Socket(host, PORT);
+             BufferedReader feedIn = new BufferedReader(new InputStreamReader(feedLink.getInputStream()));
+             PrintWriter feedOut = new PrintWriter(feedLink.getOutputStream(), true)) {
+            feedOut.println("SUBSCRIBE||||");
+
+            Map<String, String[]> batch = new HashMap<>();
+            String line;
+            while ((line = feedIn.readLine()) != null) {
+                if (line.startsWith("EVENT|")) {
+                    applyEvent(line, batch);
+                } else if (line.startsWith("SUBSCRIBED")) {
+                    feedDown = false;
+                    //the feed is about to replay every lecture from scratch
+                    Platform.runLater(scheduleView::clear);
+                }
+
+                //hand a burst of events to the FX thread in one go
+                if (!feedIn.ready() && !batch.isEmpty()) {
+                    Map<String, String[]> changed = new HashMap<>(batch);
+                    batch.clear();
+                    feedLive = true;
+                    Platform.runLater(() -> changed.values().forEach(slot -> scheduleView.set(slot[0], slot[1], slot[2], slot[3])));
+                }
+            }
+        } catch (IOException e) {
+            if (!feedDown) {
+                feedDown = true;
+                String message = "Schedule feed closed: " + e.getMessage() + ", retrying.";
+                Platform.runLater(() -> responseLabel.setText(message));
+            }
+        }
+    }
+
+    //EVENT|KIND|version|day|time|room|module|minutes - module is empty once the room is free
+    private void applyEvent(String line, Map<String, String[]> batch) {
+        String[] fields = line.split("\\|", -1);
+        if (fields.length < 7) return;
+
+        String module = fields[1].equals("REMOVED") ? null : fields[6];
+        batch.put(fields[3] + " " + fields[4] + " " + fields[5], new String[] {fields[3], fields[4], fields[5], module});
+    }
+
     private void sendRequest(ActionEvent event) {
         String action = actionBox.getValue();
         String message = action.toUpperCase() + "|" + dayBox.getValue() + "|" + timeField.getText() + "|" + roomField.getText() + "|" + moduleField.getText();
-        out.println(message);
 
-        try {
-            String response = in.readLine();
-            if (action.equals("Display Schedule")) {
-                showSchedulePopup(response);
+        //the feed already holds the whole grid, so there is nothing to fetch
+        if (action.equals("Display Schedule") && feedLive) {
+            scheduleView.show();
+            return;
+        }
+
+        //the response arrives on an I/O thread and is shown on the FX thread
+        connection.send(message).whenComplete((response, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                responseLabel.setText("Error: Communication failure.");
+            } else if (action.equals("Display Schedule")) {
+                scheduleView.applyResponse(response);
+                scheduleView.show();
             } else {
                 responseLabel.setText("Server: " + response);
             }
-
-
-        } catch (IOException e) {
-            responseLabel.setText("Error: Communication failure.");
-        }
+        }));
     }
 
     private void stopConnection(ActionEvent event) {
-        try {
-            out.println("STOP");
-            String response = in.readLine();
+        connection.close().whenComplete((response, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                responseLabel.setText("Error: Unable to close connection.");
+                return;
+            }
             responseLabel.setText("Server: " + response);
 
             if ("TERMINATE".equals(response)) {
                 System.out.println("Closing client application...");
-                link.close();
                 System.exit(0);
             }
-        } catch (IOException e) {
-            responseLabel.setText("Error: Unable to close connection.");
-        }
+        }));
     }
 
     private void validateTimeInput(KeyEvent event) {
@@ -124,60 +193,6 @@ public class App extends Application {
         }
     }
 
-    private void showSchedulePopup(String scheduleData) {
-        if (schedulePopup != null && schedulePopup.isShowing()) {
-            schedulePopup.close();
-        }
-
-        schedulePopup = new Stage(); // ← reuse the same variable now
-        schedulePopup.setTitle("Lecture Schedule");
-
-        GridPane grid = new GridPane();
-        grid.setHgap(10);
-        grid.setVgap(10);
-
-        String[] days = {"Monday", "Tuesday", "Wednesday", "Thursday", "Friday"};
-        String[] hours = {"09:00", "10:00", "11:00", "12:00", "13:00", "14:00", "15:00", "16:00", "17:00"};
-
-        for (int i = 0; i < days.length; i++) {
-            Label dayLabel = new Label(days[i]);
-            grid.add(dayLabel, i + 1, 0);
-        }
-
-        for (int i = 0; i < hours.length; i++) {
-            Label timeLabel = new Label(hours[i]);
-            grid.add(timeLabel, 0, i + 1);
-        }
-
-        String[] entries = scheduleData.split(";");
-        Map<String, String> slotMap = new HashMap<>();
-        for (String entry : entries) {
-            if (entry.contains("Day:") && entry.contains("Time:")) {
-                String day = entry.split("Day: ")[1].split(" \\|")[0].trim();
-                String time = entry.split("Time: ")[1].split(";|\\|")[0].trim();
-                slotMap.put(day + " " + time, entry.contains("Module:") ?
-                        entry.split("Module: ")[1].split(" \\|")[0] + "\n" + entry.split("Room: ")[1]
-                        : "EMPTY");
-            }
-        }
-
-        for (int row = 0; row < hours.length; row++) {
-            for (int col = 0; col < days.length; col++) {
-                String key = days[col] + " " + hours[row];
-                String content = slotMap.getOrDefault(key, "EMPTY");
-                Label cell = new Label(content);
-                cell.setStyle("-fx-border-color: black; -fx-padding: 5;");
-                grid.add(cell, col + 1, row + 1);
-            }
-        }
-
-        Scene scene = new Scene(grid, 600, 400);
-        schedulePopup.setScene(scene);
-        schedulePopup.show();
-    }
-
-
-
     public static void main(String[] args) {
         launch();
     }
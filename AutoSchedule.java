@@ -0,0 +1,543 @@
+package com.mycompany.tcpechoserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.ReentrantLock;
+
+// AUTO SCHEDULE - places lectures for several modules in one go.
+//
+//   AUTO SCHEDULE|<day>[-<day>]|<budget ms>|<room>[,<room>...]|<module>*<count>[@<room>/<room>...][!<unavailable>...];...[|minutes]
+//
+// Each module gets 'count' more lectures on the given days (all days when empty),
+// in its own rooms after '@' or else the listed rooms (every known room when none
+// are listed), never in an unavailable time: "<day>", "<day> HH:MM-HH:MM" or
+// "HH:MM-HH:MM" on every day. The search runs as a background job polled with
+// AUTO STATUS, since it can take the whole budget.
+//
+// The search works on its own copies of the rooms' and modules' busy bitmaps,
+// read without a lock, so nothing waits for it. Lectures are placed one at a time,
+// modules with the fewest possible starts first, trying a few starts per lecture and
+// backtracking when the rest cannot all be placed. The top SPLIT_DEPTH levels of the
+// tree are forked on the common pool, as EarlyLecture forks days, and a branch that
+// cannot place more lectures than the best result so far is cut. The search stops
+// once every lecture is placed or the budget runs out, and the best result, the
+// most lectures placed at any node so far, is committed: its days are locked, each placement is checked again and they are
+// added with Timetable.putAll as one snapshot version. Placements that other
+// bookings took while the search ran are dropped and reported as not placed;
+// searching again under a stream of writes would only meet new clashes.
+class AutoSchedule {
+    static final long DEFAULT_BUDGET_MILLIS = 2000;
+    static final long MAX_BUDGET_MILLIS = 60_000;
+    static final int MAX_LECTURES = 1000; // per request
+
+    private static final int BRANCHES = 32;       // placements tried per lecture
+    private static final int ROOMS_PER_START = 2; // of which rooms for one start time
+    private static final int FORKED_BRANCHES = 8; // placements forked as tasks per level
+    private static final int SPLIT_DEPTH = 2;     // levels of the search tree that fork
+    private static final int[] NO_CANDIDATES = new int[0];
+
+    // One module's part of the request
+    private static final class Demand {
+        final String module;
+        final int count;
+        final List<String> rooms;
+        final long[] allowed; // starts within the requested days and clear of unavailable times
+
+        Demand(String module, int count, List<String> rooms, long[] allowed) {
+            this.module = module;
+            this.count = count;
+            this.rooms = rooms;
+            this.allowed = allowed;
+        }
+    }
+
+    private final Timetable schedule;
+    private final List<Demand> demands;
+    private final int length;
+    private final long budgetNanos;
+    private final int total; // lectures asked for
+
+    private AutoSchedule(Timetable schedule, List<Demand> demands, int length, long budgetMillis) {
+        this.schedule = schedule;
+        this.demands = demands;
+        this.length = length;
+        this.budgetNanos = budgetMillis * 1_000_000;
+        int n = 0;
+        for (Demand demand : demands) {
+            n += demand.count;
+        }
+        this.total = n;
+    }
+
+    // Checks the request and starts the job; returns the job id or an error
+    static String submit(Request request, ServerObserver observer) {
+        Timetable schedule = TCPEchoServer.schedule;
+        TermCalendar calendar = schedule.calendar;
+
+        int[] days = TCPEchoServer.dayRange(request.field(1).trim());
+        if (days == null) {
+            return "ERROR: Invalid day: " + request.field(1).trim();
+        }
+
+        String budgetText = request.field(2).trim();
+        long budget = budgetText.isEmpty() ? DEFAULT_BUDGET_MILLIS : TermCalendar.parseNumber(budgetText, 0, budgetText.length());
+        if (budget < 1 || budget > MAX_BUDGET_MILLIS) {
+            return "ERROR: Invalid time budget: " + budgetText + " (milliseconds, at most " + MAX_BUDGET_MILLIS + ").";
+        }
+
+        int length = TCPEchoServer.lectureSlots(request);
+        if (length < 0) {
+            return "ERROR: " + TCPEchoServer.invalidLength(request);
+        }
+
+        List<String> defaultRooms = TCPEchoServer.roomList(request.room(), ",");
+        if (defaultRooms.isEmpty()) defaultRooms = schedule.knownRooms();
+
+        long[] inDays = schedule.startMask(days[0], days[1], 0, length);
+        List<Demand> demands = new ArrayList<>();
+        Set<String> modules = new HashSet<>();
+        int lectures = 0;
+        for (String entry : request.module().split(";")) {
+            if (entry.trim().isEmpty()) continue;
+
+            String[] parts = entry.split("!", -1);
+            String[] head = parts[0].split("@", -1);
+            int star = head[0].indexOf('*');
+            String module = star < 0 ? "" : head[0].substring(0, star).trim();
+            String countText = star < 0 ? "" : head[0].substring(star + 1).trim();
+            int count = TermCalendar.parseNumber(countText, 0, countText.length());
+            if (module.isEmpty() || count < 1 || head.length > 2) {
+                return "ERROR: Invalid module: " + entry.trim()
+                        + " (expected <module>*<lectures>[@<room>/<room>...][!<day> HH:MM-HH:MM...]).";
+            }
+            if (!modules.add(module)) {
+                return "ERROR: Module " + module + " is listed more than once.";
+            }
+            lectures += count;
+            if (lectures > MAX_LECTURES) {
+                return "ERROR: At most " + MAX_LECTURES + " lectures can be scheduled at once.";
+            }
+
+            List<String> rooms = head.length == 2 ? TCPEchoServer.roomList(head[1], "/") : defaultRooms;
+            if (rooms.isEmpty()) {
+                return head.length == 2 ? "ERROR: No rooms given for module " + module + "."
+                        : "ERROR: No rooms are known yet, name the rooms to search.";
+            }
+
+            long[] clear = new long[inDays.length];
+            Arrays.fill(clear, -1L);
+            for (int i = 1; i < parts.length; i++) {
+                if (!block(calendar, schedule, parts[i].trim(), clear)) {
+                    return "ERROR: Invalid unavailable time: " + parts[i].trim()
+                            + " (<day>, <day> HH:MM-HH:MM or HH:MM-HH:MM on every day).";
+                }
+            }
+            long[] allowed = Timetable.runStarts(clear, length);
+            for (int w = 0; w < allowed.length; w++) {
+                allowed[w] &= inDays[w];
+            }
+            demands.add(new Demand(module, count, rooms, allowed));
+        }
+        if (demands.isEmpty()) {
+            return "ERROR: No modules to schedule.";
+        }
+
+        AutoSchedule auto = new AutoSchedule(schedule, demands, length, budget);
+        BackgroundJobs.Job job = BackgroundJobs.submit("AUTO SCHEDULE", ServerMetrics.autoScheduleJobs, observer, auto::run);
+        if (job == null) return BackgroundJobs.QUEUE_FULL;
+        observer.log("AUTO SCHEDULE job " + job.id + " started.");
+        return "Auto Scheduling " + auto.total + " Lectures | Job: " + job.id;
+    }
+
+    // Clears the bits of 'clear' for the slots an unavailable time overlaps; false if it is malformed
+    private static boolean block(TermCalendar calendar, Timetable schedule, String text, long[] clear) {
+        int space = text.lastIndexOf(' ');
+        String range = text.substring(space + 1);
+        int dash = range.indexOf('-');
+        int from = dash < 0 ? -1 : TermCalendar.parseMinute(range, 0, dash);
+        int to = dash < 0 ? -1 : TermCalendar.parseMinute(range, dash + 1, range.length());
+
+        int fromDay = 0;
+        int toDay = calendar.days - 1;
+        if (from < 0) {
+            // the whole day
+            fromDay = toDay = calendar.dayIndex(text, 0, text.length());
+            from = calendar.firstMinute;
+            to = calendar.lastMinute;
+        } else if (space >= 0) {
+            fromDay = toDay = calendar.dayIndex(text, 0, space);
+        }
+        if (fromDay < 0 || from >= to) return false;
+
+        // Slots that start before 'to' and end after 'from'
+        int firstSlot = Math.max(0, (from - calendar.firstMinute) / calendar.slotMinutes);
+        int lastSlot = Math.min(calendar.slotsPerDay, (to - calendar.firstMinute + calendar.slotMinutes - 1) / calendar.slotMinutes);
+        for (int day = fromDay; day <= toDay && firstSlot < lastSlot; day++) {
+            Timetable.clear(clear, schedule.slot(day, firstSlot), schedule.slot(day, lastSlot));
+        }
+        return true;
+    }
+
+    // Runs on the job thread: searches, commits, and lists what was placed
+    String run(BackgroundJobs.Job job) {
+        List<Lecture> found = new Search().run();
+        List<Lecture> placed = commit(found);
+        if (!schedule.log().awaitDurable()) {
+            throw new IllegalStateException("Lectures scheduled but could not be written to the log.");
+        }
+        job.details = describe(placed, found.size() - placed.size());
+        return "Lectures placed: " + placed.size() + " of " + total;
+    }
+
+    // Adds the placements that are still free as one batch and returns them
+    private List<Lecture> commit(List<Lecture> found) {
+        TreeSet<Integer> days = new TreeSet<>();
+        for (Lecture lecture : found) {
+            days.add(schedule.dayOf(lecture.slot));
+        }
+
+        List<ReentrantLock> locks = schedule.lockDays(days);
+        try {
+            if (schedule.log().hasFailed()) {
+                throw new IllegalStateException(WriteAheadLog.FAILED);
+            }
+            synchronized (schedule.moduleLock) {
+                // The placements never clash with each other, only with writes made during the search
+                List<Lecture> free = new ArrayList<>();
+                for (Lecture lecture : found) {
+                    if (schedule.isRoomFree(lecture.room, lecture.slot, lecture.length)
+                            && schedule.isModuleFree(lecture.module, lecture.slot, lecture.length)) {
+                        free.add(lecture);
+                    }
+                }
+
+                // Modules booked by others in the meantime may have used up the module limit
+                int limit = TCPEchoServer.moduleLimit;
+                List<Lecture> lectures = new ArrayList<>();
+                Set<String> newModules = new HashSet<>();
+                for (Lecture lecture : free) {
+                    if (limit > 0 && !schedule.hasModule(lecture.module) && !newModules.contains(lecture.module)) {
+                        if (schedule.moduleCount() + newModules.size() >= limit) continue;
+                        newModules.add(lecture.module);
+                    }
+                    lectures.add(lecture);
+                }
+                schedule.putAll(lectures);
+                return lectures;
+            }
+        } finally {
+            Timetable.unlockDays(locks);
+        }
+    }
+
+    // The placed lectures in time order, then the lectures that did not fit, per module
+    private String describe(List<Lecture> placed, int dropped) {
+        List<Lecture> sorted = new ArrayList<>(placed);
+        sorted.sort(Comparator.comparingInt((Lecture lecture) -> lecture.slot).thenComparing(lecture -> lecture.room));
+
+        StringBuilder sb = new StringBuilder(";");
+        for (Lecture lecture : sorted) {
+            sb.append(lecture).append(";");
+        }
+        for (Demand demand : demands) {
+            long missing = demand.count - placed.stream().filter(lecture -> lecture.module.equals(demand.module)).count();
+            if (missing > 0) {
+                sb.append("NOT PLACED | Module: ").append(demand.module).append(" | Lectures: ").append(missing).append(";");
+            }
+        }
+        if (dropped > 0) {
+            sb.append("CHANGED | ").append(dropped).append(" lectures found were booked by others during the search;");
+        }
+        return sb.toString();
+    }
+
+    // One search over a copy of the live bitmaps
+    private final class Search {
+        final String[] rooms;     // every room some module may use
+        final Demand[] order;     // most constrained first
+        final int[][] roomsOf;    // per module in 'order', its rooms (indexes into 'rooms'), least wanted first
+        final boolean[] isNew;    // per module: not scheduled yet, so it counts towards the module limit
+        final int newModulesAllowed;
+        final int[] demandAt;     // module of each lecture position
+        final int[] nextDemand;   // position of the first lecture of the next module
+        final long deadline;
+
+        private volatile boolean solved;
+        private volatile int bestPlaced = -1;
+        private int[] bestRoom;   // guarded by this
+        private int[] bestStart;
+
+        Search() {
+            TreeSet<String> names = new TreeSet<>();
+            for (Demand demand : demands) {
+                names.addAll(demand.rooms);
+            }
+            rooms = names.toArray(new String[0]);
+            int[] wanted = new int[rooms.length];
+            for (Demand demand : demands) {
+                for (String room : demand.rooms) {
+                    wanted[Arrays.binarySearch(rooms, room)]++;
+                }
+            }
+
+            // Fewest possible starts per lecture first, counted on the live schedule
+            long[] options = new long[demands.size()];
+            for (int d = 0; d < options.length; d++) {
+                Demand demand = demands.get(d);
+                for (String room : demand.rooms) {
+                    for (long word : schedule.freeStarts(room, demand.module, demand.allowed, length)) {
+                        options[d] += Long.bitCount(word);
+                    }
+                }
+                options[d] /= demand.count;
+            }
+            Integer[] sorted = new Integer[options.length];
+            for (int d = 0; d < sorted.length; d++) {
+                sorted[d] = d;
+            }
+            Arrays.sort(sorted, Comparator.comparingLong((Integer d) -> options[d]).thenComparing(d -> demands.get(d).module));
+
+            order = new Demand[sorted.length];
+            roomsOf = new int[sorted.length][];
+            isNew = new boolean[sorted.length];
+            demandAt = new int[total];
+            nextDemand = new int[total];
+            int pos = 0;
+            for (int d = 0; d < order.length; d++) {
+                Demand demand = order[d] = demands.get(sorted[d]);
+                isNew[d] = !schedule.hasModule(demand.module);
+                roomsOf[d] = demand.rooms.stream().mapToInt(room -> Arrays.binarySearch(rooms, room))
+                        .boxed().sorted(Comparator.comparingInt((Integer r) -> wanted[r]).thenComparingInt(r -> r))
+                        .mapToInt(Integer::intValue).toArray();
+                for (int i = 0; i < demand.count; i++) {
+                    demandAt[pos + i] = d;
+                    nextDemand[pos + i] = pos + demand.count;
+                }
+                pos += demand.count;
+            }
+
+            int limit = TCPEchoServer.moduleLimit;
+            newModulesAllowed = limit > 0 ? Math.max(0, limit - schedule.moduleCount()) : Integer.MAX_VALUE;
+            deadline = System.nanoTime() + budgetNanos;
+        }
+
+        // The best set of placements found within the budget
+        List<Lecture> run() {
+            State initial = new State(rooms.length, order.length, total);
+            for (int r = 0; r < rooms.length; r++) {
+                initial.roomBusy[r] = schedule.roomBusy(rooms[r]);
+            }
+            for (int d = 0; d < order.length; d++) {
+                initial.moduleBusy[d] = schedule.moduleBusy(order[d].module);
+            }
+            ForkJoinPool.commonPool().invoke(new Branch(this, initial, 0, SPLIT_DEPTH));
+
+            List<Lecture> placed = new ArrayList<>();
+            synchronized (this) {
+                for (int pos = 0; bestRoom != null && pos < total; pos++) {
+                    if (bestRoom[pos] < 0) continue;
+                    int slot = bestStart[pos];
+                    placed.add(schedule.calendar.lecture(schedule.dayOf(slot), schedule.slotOfDay(slot), length,
+                            rooms[bestRoom[pos]], order[demandAt[pos]].module));
+                }
+            }
+            return placed;
+        }
+
+        // False once the search is over or the branch cannot beat the best result
+        boolean worthExploring(State state, int pos) {
+            return !solved && state.placed + (total - pos) > bestPlaced && System.nanoTime() < deadline;
+        }
+
+        // Every node records a new best, so a budget that runs out mid-descent keeps what was placed
+        void search(State state, int pos) {
+            if (state.placed > bestPlaced) record(state);
+            if (pos == total || !worthExploring(state, pos)) return;
+
+            int[] candidates = candidates(state, pos);
+            for (int i = 0; i < candidates.length && !solved; i += 2) {
+                place(state, pos, candidates[i], candidates[i + 1]);
+                search(state, pos + 1);
+                unplace(state, pos);
+            }
+            // Leave this lecture and the rest of its module's unplaced
+            search(state, nextDemand[pos]);
+        }
+
+        synchronized void record(State state) {
+            if (state.placed <= bestPlaced) return;
+            bestRoom = state.room.clone();
+            bestStart = state.start.clone();
+            bestPlaced = state.placed;
+            if (state.placed == total) solved = true;
+        }
+
+        // Up to BRANCHES {start, room} pairs for the lecture at 'pos', in the order to try them.
+        // A module's lectures are placed in time order, so they are never tried in two orders,
+        // and later days come before more of the same day to spread the module over the week.
+        int[] candidates(State state, int pos) {
+            int d = demandAt[pos];
+            boolean first = pos == 0 || demandAt[pos - 1] != d;
+            if (first && isNew[d] && state.newModules >= newModulesAllowed) return NO_CANDIDATES;
+
+            int[] roomIndexes = roomsOf[d];
+            long[][] free = new long[roomIndexes.length][];
+            for (int i = 0; i < free.length; i++) {
+                long[] roomBusy = state.roomBusy[roomIndexes[i]];
+                long[] moduleBusy = state.moduleBusy[d];
+                long[] clear = new long[roomBusy.length];
+                for (int w = 0; w < clear.length; w++) {
+                    clear[w] = ~(roomBusy[w] | moduleBusy[w]);
+                }
+                free[i] = Timetable.runStarts(clear, length);
+                for (int w = 0; w < clear.length; w++) {
+                    free[i][w] &= order[d].allowed[w];
+                }
+            }
+
+            int capacity = schedule.capacity();
+            int earliest = first ? 0 : state.start[pos - 1] + length;
+            int nextDay = first ? 0 : Math.min(capacity, schedule.slot(schedule.dayOf(state.start[pos - 1]) + 1, 0));
+            int[] out = new int[2 * BRANCHES];
+            int n = collect(free, roomIndexes, Math.max(earliest, nextDay), capacity, out, 0);
+            n = collect(free, roomIndexes, earliest, nextDay, out, n);
+            return n == out.length ? out : Arrays.copyOf(out, n);
+        }
+
+        // Appends {start, room} pairs with starts in [from, to) to out[n..]; returns the new n
+        private int collect(long[][] free, int[] roomIndexes, int from, int to, int[] out, int n) {
+            for (int w = from >>> 6; from < to && w <= (to - 1) >>> 6 && n < out.length; w++) {
+                long any = 0;
+                for (long[] room : free) {
+                    any |= room[w];
+                }
+                any &= Timetable.mask(w, from, to);
+                while (any != 0 && n < out.length) {
+                    int start = (w << 6) + Long.numberOfTrailingZeros(any);
+                    any &= any - 1;
+
+                    int taken = 0;
+                    for (int i = 0; i < free.length && taken < ROOMS_PER_START && n < out.length; i++) {
+                        if ((free[i][w] & (1L << start)) == 0) continue;
+                        out[n++] = start;
+                        out[n++] = roomIndexes[i];
+                        taken++;
+                    }
+                }
+            }
+            return n;
+        }
+
+        void place(State state, int pos, int start, int room) {
+            int d = demandAt[pos];
+            Timetable.set(state.roomBusy[room], start, start + length);
+            Timetable.set(state.moduleBusy[d], start, start + length);
+            state.room[pos] = room;
+            state.start[pos] = start;
+            state.placed++;
+            if (isNew[d] && (pos == 0 || demandAt[pos - 1] != d)) state.newModules++;
+        }
+
+        void unplace(State state, int pos) {
+            int d = demandAt[pos];
+            int start = state.start[pos];
+            Timetable.clear(state.roomBusy[state.room[pos]], start, start + length);
+            Timetable.clear(state.moduleBusy[d], start, start + length);
+            state.room[pos] = -1;
+            state.start[pos] = -1;
+            state.placed--;
+            if (isNew[d] && (pos == 0 || demandAt[pos - 1] != d)) state.newModules--;
+        }
+    }
+
+    // One branch's partial timetable
+    private static final class State {
+        final long[][] roomBusy;
+        final long[][] moduleBusy;
+        final int[] room;  // per lecture position, index into Search.rooms, or -1 when not placed
+        final int[] start; // first slot, or -1
+        int placed;
+        int newModules;
+
+        State(int rooms, int modules, int lectures) {
+            roomBusy = new long[rooms][];
+            moduleBusy = new long[modules][];
+            room = new int[lectures];
+            start = new int[lectures];
+            Arrays.fill(room, -1);
+            Arrays.fill(start, -1);
+        }
+
+        private State(State other) {
+            roomBusy = deepCopy(other.roomBusy);
+            moduleBusy = deepCopy(other.moduleBusy);
+            room = other.room.clone();
+            start = other.start.clone();
+            placed = other.placed;
+            newModules = other.newModules;
+        }
+
+        State copy() {
+            return new State(this);
+        }
+
+        private static long[][] deepCopy(long[][] bits) {
+            long[][] copy = new long[bits.length][];
+            for (int i = 0; i < bits.length; i++) {
+                copy[i] = bits[i].clone();
+            }
+            return copy;
+        }
+    }
+
+    // Forks the first placements of a lecture as separate tasks, each on its own copy of the state
+    private static final class Branch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Search search;
+        private final State state;
+        private final int pos;
+        private final int depth; // levels below this one that still fork
+
+        Branch(Search search, State state, int pos, int depth) {
+            this.search = search;
+            this.state = state;
+            this.pos = pos;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            if (depth == 0 || pos == search.demandAt.length) {
+                search.search(state, pos);
+                return;
+            }
+            if (state.placed > search.bestPlaced) search.record(state);
+            if (!search.worthExploring(state, pos)) return;
+
+            int[] candidates = search.candidates(state, pos);
+            List<Branch> forked = new ArrayList<>();
+            int i = 0;
+            for (; i < candidates.length && forked.size() < FORKED_BRANCHES; i += 2) {
+                State child = state.copy();
+                search.place(child, pos, candidates[i], candidates[i + 1]);
+                forked.add(new Branch(search, child, pos + 1, depth - 1));
+            }
+            invokeAll(forked);
+
+            for (; i < candidates.length && search.worthExploring(state, pos); i += 2) {
+                search.place(state, pos, candidates[i], candidates[i + 1]);
+                search.search(state, pos + 1);
+                search.unplace(state, pos);
+            }
+            search.search(state, search.nextDemand[pos]);
+        }
+    }
+}
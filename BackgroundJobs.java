@@ -0,0 +1,125 @@
+package com.mycompany.tcpechoserver;
+
+import java.util.Iterator;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+// Background EARLY LECTURES and AUTO SCHEDULE jobs.
+// A job id is handed back to the client straight away and can be polled with
+// EARLY STATUS|<id>||| or AUTO STATUS|<id>|||. Jobs run one at a time; each
+// fans out on the common fork-join pool. At most --max-queued-jobs wait behind
+// the running one, further ones are refused.
+class BackgroundJobs {
+    private static final int MAX_FINISHED_JOBS = 100;
+
+    enum State { QUEUED, RUNNING, DONE, FAILED }
+
+    static final String QUEUE_FULL = "ERROR: Too many background jobs waiting, try again later.";
+
+    static final class Job {
+        final long id;
+        final String name;
+        volatile State state = State.QUEUED;
+        volatile String result;  // e.g. "Lectures moved: 3"
+        volatile String details = ""; // ";"-separated lines after the status, set by the job
+        volatile long millis;
+        volatile String error;
+
+        Job(long id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            switch (state) {
+                case DONE:
+                    return "Job " + id + ": DONE | " + result + " | Time: " + millis + " ms" + details;
+                case FAILED:
+                    return "Job " + id + ": FAILED | " + error;
+                default:
+                    return "Job " + id + ": " + state;
+            }
+        }
+    }
+
+    private static final AtomicLong nextId = new AtomicLong(1);
+    private static final NavigableMap<Long, Job> jobs = new ConcurrentSkipListMap<>();
+    private static volatile Semaphore queueSlots = new Semaphore(AdmissionControl.DEFAULT_MAX_QUEUED_JOBS);
+
+    private static final ExecutorService runner = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "background-jobs");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Called at startup, before any job is submitted
+    static void limitQueue(int maxQueued) {
+        queueSlots = new Semaphore(maxQueued);
+    }
+
+    static Job submitEarlyLectures(ServerObserver observer) {
+        return submit("EARLY LECTURES", ServerMetrics.earlyLectureJobs, observer,
+                job -> "Lectures moved: " + TCPEchoServer.compactSchedule());
+    }
+
+    // 'work' runs on the job thread and returns the job's result line.
+    // Null, and nothing is run, when the queue is full.
+    static Job submit(String name, ServerMetrics.Histogram timings, ServerObserver observer, Function<Job, String> work) {
+        Semaphore slots = queueSlots;
+        if (!slots.tryAcquire()) {
+            ServerMetrics.refused(AdmissionControl.Refusal.JOB);
+            return null;
+        }
+        Job job = new Job(nextId.getAndIncrement(), name);
+        jobs.put(job.id, job);
+        evictFinished();
+
+        runner.execute(() -> {
+            slots.release();
+            job.state = State.RUNNING;
+            long start = System.nanoTime();
+            try {
+                job.result = work.apply(job);
+                long nanos = System.nanoTime() - start;
+                job.millis = nanos / 1_000_000;
+                timings.record(nanos);
+                job.state = State.DONE;
+                observer.log("Finished " + name + " job " + job.id + ", " + job.result + ".");
+            } catch (RuntimeException e) {
+                job.error = String.valueOf(e.getMessage());
+                job.state = State.FAILED;
+                observer.log(name + " job " + job.id + " failed: " + e);
+            }
+        });
+        return job;
+    }
+
+    static String status(String id) {
+        Job job;
+        try {
+            job = jobs.get(Long.parseLong(id.trim()));
+        } catch (NumberFormatException e) {
+            job = null;
+        }
+        return job == null ? "ERROR: Unknown job: " + id : job.toString();
+    }
+
+    // Keeps the registry bounded - ids are increasing, so the oldest finished jobs go first
+    private static void evictFinished() {
+        int excess = jobs.size() - MAX_FINISHED_JOBS;
+        Iterator<Job> it = jobs.values().iterator();
+        while (excess > 0 && it.hasNext()) {
+            Job job = it.next();
+            if (job.state == State.DONE || job.state == State.FAILED) {
+                it.remove();
+                excess--;
+            }
+        }
+    }
+}
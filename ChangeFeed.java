@@ -0,0 +1,112 @@
+package com.mycompany.tcpechoserver;
+
+import java.util.HashMap;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Pushes schedule changes to SUBSCRIBEd connections.
+//
+// An event is the new state of one room's booking at one start time:
+//   EVENT|ADDED|<version>|<day>|<time>|<room>|<module>|<minutes>
+//   EVENT|SHIFTED|<version>|<day>|<time>|<room>|<module>|<minutes>   (moved here by EARLY LECTURES)
+//   EVENT|REMOVED|<version>|<day>|<time>|<room>||
+// SUBSCRIBE queues an ADDED event for every lecture already booked, so the client
+// can build its grid from the feed alone. Each subscriber keeps at most one pending
+// event per room and start time, so a slow subscriber only ever holds the latest
+// state of the bookings it has not been sent yet and writers never wait for it.
+class ChangeFeed {
+    private final CopyOnWriteArrayList<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+    static final class Subscriber {
+        private final TreeMap<Long, String> events = new TreeMap<>(); // unsent event per key, in slot order, guarded by this
+        private final HashMap<Long, Long> versions = new HashMap<>(); // version of each unsent event
+        private final Runnable onReady;     // called when the first event is pending
+        private boolean signalled;
+
+        Subscriber(Runnable onReady) {
+            this.onReady = onReady;
+        }
+
+        // Replaces any unsent event for the key unless it is older. Only the events
+        // queued by subscribe() can be older than one already offered: writers offer a
+        // key's events in version order under its day lock, and no connection drains
+        // its subscriber before subscribe() has returned.
+        void offer(long key, long version, String event) {
+            boolean wake;
+            synchronized (this) {
+                Long latest = versions.get(key);
+                if (latest != null && version < latest) return;
+                events.put(key, event);
+                versions.put(key, version);
+                wake = !signalled;
+                signalled = true;
+                notifyAll();
+            }
+            if (wake && onReady != null) onReady.run();
+        }
+
+        // Takes all pending events as newline-terminated lines, or null if there are none
+        synchronized String drain() {
+            signalled = false;
+            if (events.isEmpty()) return null;
+
+            StringBuilder sb = new StringBuilder();
+            for (String event : events.values()) {
+                sb.append(event).append('\n');
+            }
+            events.clear();
+            versions.clear();
+            ServerMetrics.bytesOut(sb.length());
+            return sb.toString();
+        }
+
+        // Waits up to 'millis' for an event; used by blocking connections
+        synchronized String await(long millis) throws InterruptedException {
+            if (events.isEmpty()) wait(millis);
+            return drain();
+        }
+    }
+
+    // Registers a subscriber and queues every lecture in the current snapshot
+    Subscriber subscribe(Timetable schedule, Runnable onReady) {
+        Subscriber subscriber = new Subscriber(onReady);
+        subscribers.add(subscriber);
+
+        ScheduleSnapshot snapshot = schedule.snapshot();
+        for (int d = 0; d < snapshot.dayCount(); d++) {
+            for (int s = 0; s < snapshot.slotsPerDay(); s++) {
+                for (Lecture lecture : snapshot.startingAt(d, s)) {
+                    subscriber.offer(schedule.feedKey(lecture), snapshot.version, event("ADDED", snapshot.version, lecture));
+                }
+            }
+        }
+        return subscriber;
+    }
+
+    void unsubscribe(Subscriber subscriber) {
+        if (subscriber != null) subscribers.remove(subscriber);
+    }
+
+    boolean hasSubscribers() {
+        return !subscribers.isEmpty();
+    }
+
+    int subscriberCount() {
+        return subscribers.size();
+    }
+
+    // Called by Timetable after publishing 'version'; for REMOVED, 'lecture' is the one removed
+    void changed(String kind, long version, long key, Lecture lecture) {
+        if (subscribers.isEmpty()) return;
+
+        String event = event(kind, version, lecture);
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offer(key, version, event);
+        }
+    }
+
+    private static String event(String kind, long version, Lecture lecture) {
+        String event = "EVENT|" + kind + "|" + version + "|" + lecture.day + "|" + lecture.time + "|" + lecture.room + "|";
+        return kind.equals("REMOVED") ? event + "|" : event + lecture.module + "|" + lecture.minutes;
+    }
+}
@@ -0,0 +1,255 @@
+package com.mycompany.tcpechoserver;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+// Compact binary image of the whole timetable at one snapshot version.
+//
+// Written in the background from an immutable ScheduleSnapshot, so writers are
+// never blocked. After a checkpoint of version V is on disk, log segments that
+// only hold records <= V are deleted. At startup the file is memory-mapped and
+// only the log records newer than V are replayed. EXPORT FILE and IMPORT FILE
+// use the same layout for binary timetables.
+//
+// Layout (big-endian):
+//   int magic, int format, long version, short days, short slotsPerDay,
+//   short slotMinutes, short firstMinute,
+//   int rooms, rooms x (short length, UTF-8 bytes),
+//   int modules, modules x (short length, UTF-8 bytes),
+//   int lectures, lectures x (short day, short slot of the day, short length, int room, int module),
+//   int CRC32 of everything before it
+class Checkpoint {
+    private static final int MAGIC = 0x54544350; // "TTCP"
+    private static final int FORMAT = 1;
+
+    private static final long STOP_TIMEOUT_SECONDS = 30;
+
+    private static ScheduledExecutorService checkpointer;
+    // Held while a checkpoint is written, so the background one and the one at shutdown never share the .tmp file
+    private static final Object writing = new Object();
+
+    // Starts writing a checkpoint every 'intervalSeconds' while the schedule keeps changing
+    static synchronized void startBackground(Path path, Timetable schedule, long intervalSeconds, ServerObserver observer) {
+        if (checkpointer != null || intervalSeconds <= 0) return;
+
+        checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "checkpointer");
+            t.setDaemon(true);
+            return t;
+        });
+
+        long[] lastVersion = {schedule.version()};
+        checkpointer.scheduleWithFixedDelay(() -> {
+            if (schedule.version() == lastVersion[0]) return;
+            try {
+                lastVersion[0] = take(path, schedule, observer);
+            } catch (IOException e) {
+                observer.log("Checkpoint failed: " + e.getMessage());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    // Seals the current log segment, writes the latest snapshot and deletes the
+    // log segments it covers. Returns the checkpointed version.
+    static long take(Path path, Timetable schedule, ServerObserver observer) throws IOException {
+        synchronized (writing) {
+            return takeLocked(path, schedule, observer);
+        }
+    }
+
+    private static long takeLocked(Path path, Timetable schedule, ServerObserver observer) throws IOException {
+        long start = System.nanoTime();
+        WriteAheadLog log = schedule.log();
+
+        // Every record in a sealed segment was published before the rotation,
+        // so the snapshot read afterwards covers all of them
+        log.rotate();
+        ScheduleSnapshot snapshot = schedule.snapshot();
+
+        write(path, snapshot, schedule.calendar);
+        log.deleteSegmentsUpTo(snapshot.version);
+
+        observer.log("Checkpoint of version " + snapshot.version + " (" + snapshot.size + " lectures) written in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms.");
+        return snapshot.version;
+    }
+
+    static void write(Path path, ScheduleSnapshot snapshot, TermCalendar calendar) throws IOException {
+        Map<String, Integer> roomIds = new HashMap<>();
+        Map<String, Integer> moduleIds = new HashMap<>();
+        List<String> rooms = new ArrayList<>();
+        List<String> modules = new ArrayList<>();
+        for (int d = 0; d < snapshot.dayCount(); d++) {
+            for (int s = 0; s < snapshot.slotsPerDay(); s++) {
+                for (Lecture lecture : snapshot.startingAt(d, s)) {
+                    if (roomIds.putIfAbsent(lecture.room, rooms.size()) == null) rooms.add(lecture.room);
+                    if (moduleIds.putIfAbsent(lecture.module, modules.size()) == null) modules.add(lecture.module);
+                }
+            }
+        }
+
+        // Write beside the old checkpoint and swap it in, so a crash leaves one intact file
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream file = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+            CRC32 crc = new CRC32();
+            writeBody(new DataOutputStream(new CheckedOutputStream(file, crc)), snapshot, calendar, rooms, modules, roomIds, moduleIds);
+
+            DataOutputStream trailer = new DataOutputStream(file);
+            trailer.writeInt((int) crc.getValue());
+            trailer.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Everything the trailing CRC covers, streamed to 'out' a lecture at a time
+    private static void writeBody(DataOutputStream out, ScheduleSnapshot snapshot, TermCalendar calendar, List<String> rooms,
+            List<String> modules, Map<String, Integer> roomIds, Map<String, Integer> moduleIds) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT);
+        out.writeLong(snapshot.version);
+        out.writeShort(snapshot.dayCount());
+        out.writeShort(snapshot.slotsPerDay());
+        out.writeShort(calendar.slotMinutes);
+        out.writeShort(calendar.firstMinute);
+        writeStrings(out, rooms);
+        writeStrings(out, modules);
+
+        out.writeInt(snapshot.size);
+        for (int d = 0; d < snapshot.dayCount(); d++) {
+            for (int s = 0; s < snapshot.slotsPerDay(); s++) {
+                for (Lecture lecture : snapshot.startingAt(d, s)) {
+                    out.writeShort(d);
+                    out.writeShort(s);
+                    out.writeShort(lecture.length);
+                    out.writeInt(roomIds.get(lecture.room));
+                    out.writeInt(moduleIds.get(lecture.module));
+                }
+            }
+        }
+        out.flush();
+    }
+
+    // Loads the checkpoint at 'path' into an empty schedule and returns its
+    // version, or 0 if there is no checkpoint yet
+    static long load(Path path, Timetable schedule) throws IOException {
+        if (!Files.exists(path)) return 0;
+
+        // Added as one write, so each day is published once rather than once per lecture
+        List<Lecture> lectures = new ArrayList<>();
+        long version = read(path, schedule.calendar, lectures::add);
+        TreeSet<Integer> days = new TreeSet<>();
+        for (int day = 0; day < schedule.days; day++) {
+            days.add(day);
+        }
+        List<ReentrantLock> locks = schedule.lockDays(days);
+        try {
+            schedule.putAll(lectures);
+        } finally {
+            Timetable.unlockDays(locks);
+        }
+        schedule.restoreVersion(version);
+        return version;
+    }
+
+    // Hands every lecture in the file at 'path' to 'lectures', in start order, and returns the
+    // version it was written at. Fails unless it was written for the given calendar.
+    static long read(Path path, TermCalendar calendar, Consumer<Lecture> lectures) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.limit() < 4) throw new IOException("Checkpoint " + path + " is truncated");
+
+            CRC32 crc = new CRC32();
+            ByteBuffer body = buf.duplicate();
+            body.limit(buf.limit() - 4);
+            crc.update(body);
+            if ((int) crc.getValue() != buf.getInt(buf.limit() - 4)) {
+                throw new IOException("Checkpoint " + path + " is corrupt");
+            }
+
+            int format = buf.getInt() == MAGIC ? buf.getInt() : -1;
+            if (format != FORMAT) {
+                throw new IOException("Checkpoint " + path + " has an unknown format");
+            }
+            long version = buf.getLong();
+            int days = buf.getShort();
+            int slotsPerDay = buf.getShort();
+            int slotMinutes = buf.getShort();
+            int firstMinute = buf.getShort();
+            if (days != calendar.days || slotsPerDay != calendar.slotsPerDay || slotMinutes != calendar.slotMinutes
+                    || firstMinute != calendar.firstMinute) {
+                throw new IOException("Checkpoint " + path + " was written for a " + days + " x " + slotsPerDay + " timetable of "
+                        + slotMinutes + "-minute slots; start with the calendar options it was written with");
+            }
+
+            String[] rooms = readStrings(buf);
+            String[] modules = readStrings(buf);
+            int count = buf.getInt();
+            for (int i = 0; i < count; i++) {
+                int day = buf.getShort();
+                int slotOfDay = buf.getShort();
+                int length = buf.getShort();
+                lectures.accept(calendar.lecture(day, slotOfDay, length, rooms[buf.getInt()], modules[buf.getInt()]));
+            }
+            return version;
+        }
+    }
+
+    // Returns once a checkpoint the background thread was writing has finished
+    static synchronized void stopBackground() {
+        if (checkpointer != null) {
+            checkpointer.shutdownNow();
+            try {
+                checkpointer.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            checkpointer = null;
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String s : strings) {
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            out.writeShort(utf8.length);
+            out.write(utf8);
+        }
+    }
+
+    private static String[] readStrings(ByteBuffer buf) {
+        String[] strings = new String[buf.getInt()];
+        byte[] scratch = new byte[256];
+        for (int i = 0; i < strings.length; i++) {
+            int length = buf.getShort() & 0xFFFF;
+            if (scratch.length < length) scratch = new byte[length];
+            buf.get(scratch, 0, length);
+            strings[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+}
@@ -1,68 +1,82 @@
 package com.mycompany.tcpechoserver;
 
-import javafx.concurrent.Task;
-
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
 
 public class ClientHandler implements Runnable {
+    // How often a subscribed connection checks for requests between events
+    private static final long FEED_POLL_MILLIS = 250;
+
     private final Socket clientSocket;
     private BufferedReader in;
     private PrintWriter out;
-    private final ServerGUI gui;
+    private final ServerObserver observer;
+    private final StringBuilder line = new StringBuilder();
 
     public ClientHandler(Socket socket) {
-        this.clientSocket = socket;
-        this.gui = null; // fallback if GUI isn't passed
+        this(socket, ServerObserver.CONSOLE); // fallback if GUI isn't passed
     }
 
-    public ClientHandler(Socket socket, ServerGUI gui) {
+    ClientHandler(Socket socket, ServerObserver observer) {
         this.clientSocket = socket;
-        this.gui = gui;
+        this.observer = observer;
     }
 
     @Override
     public void run() {
+        ClientSession session = new ClientSession(observer);
+        ServerMetrics.connectionOpened();
         try {
-            in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            out = new PrintWriter(clientSocket.getOutputStream(), true);
+            // Responses are flushed whole; waiting for the ACK of the previous one only adds latency
+            clientSocket.setTcpNoDelay(true);
+            // Subscribed connections only read once input is ready, so they never time out
+            clientSocket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, AdmissionControl.idleTimeoutMillis()));
+            in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream(), StandardCharsets.UTF_8));
+            out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(clientSocket.getOutputStream(), StandardCharsets.UTF_8)));
 
             log("Client connected: " + clientSocket.getInetAddress());
 
             String request;
-            while ((request = in.readLine()) != null) {
-                log("Client Request: " + request);
+            while ((request = readLine()) != null) {
+                respond(session, request);
 
-                if (request.equalsIgnoreCase("STOP")) {
-                    out.println("TERMINATE");
+                if (session.isStopped()) {
                     break;
                 }
 
-                // EARLY LECTURES gets wrapped in a Task
-                if (request.startsWith("EARLY LECTURES")) {
-                    Task<Void> earlyLectureTask = new Task<>() {
-                        @Override
-                        protected Void call() {
-                            TCPEchoServer.processEarlyLectures(); // this uses ForkJoinPool internally
-                            log("Finished EARLY LECTURES task.");
-                            return null;
-                        }
-                    };
-
-                    new Thread(earlyLectureTask).start();
-                    out.println("Shifting Lectures To Earlier Timeslots");
-                    log("EARLY LECTURES task started.");
-                } else {
-                    String response = TCPEchoServer.processRequest(request);
-                    out.println(response);
+                if (session.subscriber() != null) {
+                    out.flush();
+                    if (!streamFeed(session)) {
+                        break;
+                    }
+                    continue;
+                }
+
+                // Only flush once the client has nothing more queued, so a burst of
+                // pipelined requests is answered with one write
+                if (!in.ready()) {
+                    out.flush();
                 }
             }
+            out.flush();
+        } catch (SocketTimeoutException e) {
+            ServerMetrics.refused(AdmissionControl.Refusal.IDLE);
+            log("Client idle for " + AdmissionControl.idleTimeoutMillis() / 1000 + " s, closing the connection.");
         } catch (IOException e) {
             log("Client communication error: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } finally {
+            session.close();
+            ServerMetrics.connectionClosed();
             try {
                 clientSocket.close();
                 log("Client disconnected.");
@@ -72,11 +86,98 @@ public class ClientHandler implements Runnable {
         }
     }
 
-    private void log(String message) {
-        if (gui != null) {
-            gui.log(message);
-        } else {
-            System.out.println(message);
+    // Writes change events while the client is subscribed, still answering any
+    // requests it sends (e.g. UNSUBSCRIBE). Returns false once the client has
+    // sent STOP or closed the connection.
+    private boolean streamFeed(ClientSession session) throws IOException, InterruptedException {
+        while (session.subscriber() != null) {
+            String events = session.subscriber().await(FEED_POLL_MILLIS);
+            if (events != null) {
+                out.print(events);
+            }
+
+            while (in.ready()) {
+                String request = readLine();
+                if (request == null) {
+                    return false;
+                }
+                respond(session, request);
+                if (session.isStopped()) {
+                    return false;
+                }
+            }
+            out.flush();
+            if (out.checkError()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Like BufferedReader.readLine, but a line over the request size limit is
+    // answered with an error and then treated as the end of the input. The limit
+    // is on the line's UTF-8 bytes, as NioEngine counts them.
+    private String readLine() throws IOException {
+        line.setLength(0);
+        int limit = AdmissionControl.maxRequestBytes();
+        int bytes = 0;
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\n') {
+                int end = line.length();
+                return line.substring(0, end > 0 && line.charAt(end - 1) == '\r' ? end - 1 : end);
+            }
+            bytes += utf8Length((char) c);
+            if (bytes > limit) {
+                String error = AdmissionControl.requestTooLong();
+                log(error);
+                out.println(error);
+                return null;
+            }
+            line.append((char) c);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+
+    // A surrogate pair is 4 bytes, counted on its first half
+    private static int utf8Length(char c) {
+        if (c < 0x80) return 1;
+        if (c < 0x800) return 2;
+        if (Character.isHighSurrogate(c)) return 4;
+        return Character.isLowSurrogate(c) ? 0 : 3;
+    }
+
+    // Writes the line's response, if it has one yet, then any EXPORT rows after it
+    private void respond(ClientSession session, String request) {
+        String response = session.handle(request);
+        if (response != null) {
+            out.println(response);
+        }
+        Iterator<String> body = session.takeBody();
+        while (body != null && body.hasNext()) {
+            out.print(body.next());
+        }
+    }
+
+    // Handles one parsed request and returns the response line.
+    // Shared by the blocking handler and NioEngine.
+    static String respond(Request request, ServerObserver observer) {
+        if (request.action == Request.Action.STOP) {
+            return "TERMINATE";
+        }
+
+        // EARLY LECTURES runs in the background; the client polls EARLY STATUS with the job id
+        if (request.action == Request.Action.EARLY_LECTURES) {
+            BackgroundJobs.Job job = BackgroundJobs.submitEarlyLectures(observer);
+            if (job == null) return BackgroundJobs.QUEUE_FULL;
+            observer.log("EARLY LECTURES job " + job.id + " started.");
+            return "Shifting Lectures To Earlier Timeslots | Job: " + job.id;
         }
+
+        return TCPEchoServer.processRequest(request);
+    }
+
+    private void log(String message) {
+        observer.log(message);
     }
 }
@@ -0,0 +1,255 @@
+package com.mycompany.tcpechoserver;
+
+import java.util.Iterator;
+
+// Per-connection protocol state, shared by ClientHandler and NioEngine.
+//
+// Sending "PIPELINE" switches the connection to pipelined mode: each request
+// is then tagged "<id>#<request>" and answered "<id>#<response>", so a client
+// can send many requests without waiting. Responses still come back in order.
+//
+// "SUBSCRIBE" registers the connection with the schedule's ChangeFeed; the
+// engine then writes the pending EVENT lines whenever the subscriber is ready.
+//
+// "IMPORT|<lines>|||" makes the next <lines> lines CSV rows, and "BATCH|<lines>||||"
+// the next <lines> lines write requests: handle() returns null for the header and
+// each line, and the one response after the last line. An EXPORT response is followed by rows the engine takes with takeBody() and writes
+// as the client reads them.
+class ClientSession {
+    private static final char ID_SEPARATOR = '#';
+
+    private final ServerObserver observer;
+    private final Request request = new Request();
+    private final Runnable feedReady;
+    private final AdmissionControl.RateLimit rate = new AdmissionControl.RateLimit();
+    private volatile ChangeFeed.Subscriber subscriber; // also read by the NioEngine selector thread
+    private boolean pipelined;
+    private boolean stopped;
+    private Block block;                        // IMPORT or BATCH whose lines are still arriving
+    private Request.Action blockAction;
+    private int blockLines;                     // lines of it still to come
+    private String blockTag;                    // "<id>#" of a pipelined IMPORT or BATCH, else ""
+    private long blockStart;
+    private Iterator<String> body;              // rows to write after the last response
+
+    // Lines that follow an IMPORT or BATCH header, answered together after the last one
+    interface Block {
+        void add(String line);
+
+        String apply();
+    }
+
+    ClientSession(ServerObserver observer) {
+        this(observer, null);
+    }
+
+    // 'feedReady' is run when a subscribed connection has events to send
+    ClientSession(ServerObserver observer, Runnable feedReady) {
+        this.observer = observer;
+        this.feedReady = feedReady;
+    }
+
+    // The response to the line, or null while an IMPORT or BATCH is reading its lines
+    String handle(String line) {
+        ServerMetrics.bytesIn(line.length() + 1);
+        String response = block != null ? blockLine(line) : dispatch(line);
+        if (response != null) ServerMetrics.bytesOut(response.length() + 1);
+        return response;
+    }
+
+    // Rows written after the last response, each ending in a newline, or null; taken once
+    Iterator<String> takeBody() {
+        Iterator<String> rows = body;
+        body = null;
+        return rows;
+    }
+
+    private String blockLine(String line) {
+        block.add(line);
+        if (--blockLines > 0) return null;
+
+        String refusal = AdmissionControl.startWork();
+        String applied;
+        if (refusal != null) {
+            applied = refusal;
+        } else {
+            try {
+                applied = block.apply();
+            } finally {
+                AdmissionControl.endWork();
+            }
+        }
+        String response = blockTag + applied;
+        block = null;
+        ServerMetrics.request(blockAction, System.nanoTime() - blockStart);
+        observer.log(response);
+        return response;
+    }
+
+    private String dispatch(String line) {
+        observer.log("Client Request: " + line);
+
+        if (!pipelined) {
+            if (line.equalsIgnoreCase("PIPELINE")) {
+                pipelined = true;
+                return "PIPELINE OK";
+            }
+            return respond(request.parse(line));
+        }
+
+        int separator = line.indexOf(ID_SEPARATOR);
+        if (separator <= 0) {
+            return "ERROR: Pipelined requests must be tagged as <id>#<request>.";
+        }
+
+        // The request is parsed in place after the id
+        String response = respond(request.parse(line, separator + 1));
+        if (response == null) {
+            blockTag = line.substring(0, separator + 1); // answered after the block's last line
+            return null;
+        }
+        return line.substring(0, separator + 1) + response;
+    }
+
+    private String respond(Request parsed) {
+        long start = System.nanoTime();
+        String response;
+        String refusal = AdmissionControl.startWork(rate, parsed);
+        if (refusal != null) {
+            response = refuse(parsed, refusal);
+        } else {
+            try {
+                response = respondTo(parsed);
+            } finally {
+                AdmissionControl.endWork();
+            }
+        }
+        if (response != null) ServerMetrics.request(parsed.action, System.nanoTime() - start);
+        return response;
+    }
+
+    private String respondTo(Request parsed) {
+        stopped = parsed.action == Request.Action.STOP;
+
+        // A follower forwards writes to its leader and refuses reads while it is stale
+        String routed = Replication.route(parsed);
+        if (routed != null) return routed;
+
+        if (parsed.action == Request.Action.SUBSCRIBE) {
+            Timetable schedule = TCPEchoServer.schedule;
+            if (subscriber == null) {
+                subscriber = schedule.feed.subscribe(schedule, feedReady);
+                observer.log("Client subscribed to schedule changes.");
+            }
+            return "SUBSCRIBED | Version: " + schedule.version();
+        }
+        if (parsed.action == Request.Action.UNSUBSCRIBE) {
+            close();
+            return "UNSUBSCRIBED";
+        }
+        if (parsed.action == Request.Action.IMPORT || parsed.action == Request.Action.BATCH) {
+            return startBlock(parsed);
+        }
+        if (parsed.action == Request.Action.EXPORT) {
+            ScheduleSnapshot snapshot = TCPEchoServer.schedule.snapshot();
+            body = counted(TimetableTransfer.rows(snapshot));
+            return TimetableTransfer.exportHeader(snapshot);
+        }
+        return ClientHandler.respond(parsed, observer);
+    }
+
+    // The refusal, after the lines of a refused IMPORT or BATCH have been skipped
+    private String refuse(Request parsed, String refusal) {
+        if (parsed.action == Request.Action.IMPORT || parsed.action == Request.Action.BATCH) {
+            return startBlock(parsed, refusal);
+        }
+        return refusal;
+    }
+
+    private String startBlock(Request parsed) {
+        return startBlock(parsed, null);
+    }
+
+    // Reads IMPORT|<lines>||| or BATCH|<lines>|[<version>]||; null when lines follow.
+    // With a refusal the lines are read and dropped, and the refusal is the response.
+    private String startBlock(Request parsed, String refusal) {
+        boolean importing = parsed.action == Request.Action.IMPORT;
+        int maxLines = importing ? TimetableTransfer.MAX_IMPORT_LINES : ScheduleBatch.MAX_OPERATIONS;
+        String text = parsed.field(1).trim();
+        int lines = TermCalendar.parseNumber(text, 0, text.length());
+        if (parsed.fieldCount() < Request.FIELDS || lines < 0 || lines > maxLines) {
+            return "ERROR: Invalid line count: " + text + " (" + parsed.action.command + "|<lines>|... with at most "
+                    + maxLines + " lines).";
+        }
+        if (lines == 0) {
+            return importing ? "ERROR: Nothing to import." : "ERROR: Nothing to change.";
+        }
+
+        Timetable schedule = TCPEchoServer.schedule;
+        if (refusal != null) {
+            block = skipped(refusal);
+        } else if (Replication.isFollower()) {
+            block = Replication.forwarding(parsed.text());
+        } else if (importing) {
+            block = new TimetableTransfer.Import(schedule, "Line");
+        } else {
+            long expected = ScheduleBatch.parseVersion(parsed.field(2).trim());
+            if (expected == ScheduleBatch.INVALID_VERSION) {
+                return "ERROR: Invalid version: " + parsed.field(2).trim();
+            }
+            block = new ScheduleBatch(schedule, expected, false);
+        }
+        blockAction = parsed.action;
+        blockLines = lines;
+        blockTag = "";
+        blockStart = System.nanoTime();
+        return null;
+    }
+
+    private static Block skipped(String refusal) {
+        return new Block() {
+            @Override
+            public void add(String line) {
+            }
+
+            @Override
+            public String apply() {
+                return refusal;
+            }
+        };
+    }
+
+    private static Iterator<String> counted(Iterator<String> rows) {
+        return new Iterator<String>() {
+            @Override
+            public boolean hasNext() {
+                return rows.hasNext();
+            }
+
+            @Override
+            public String next() {
+                String chunk = rows.next();
+                ServerMetrics.bytesOut(chunk.length());
+                return chunk;
+            }
+        };
+    }
+
+    // Feed subscription, or null when the client has not sent SUBSCRIBE
+    ChangeFeed.Subscriber subscriber() {
+        return subscriber;
+    }
+
+    // Drops the subscription; called on UNSUBSCRIBE and when the connection closes
+    void close() {
+        if (subscriber != null) {
+            TCPEchoServer.schedule.feed.unsubscribe(subscriber);
+            subscriber = null;
+        }
+    }
+
+    // True once the client has sent STOP
+    boolean isStopped() {
+        return stopped;
+    }
+}
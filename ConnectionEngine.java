@@ -0,0 +1,28 @@
+package com.mycompany.tcpechoserver;
+
+import java.io.IOException;
+
+// Accepts client connections and feeds their request lines to ClientHandler.respond
+interface ConnectionEngine {
+
+    // Blocks, serving clients on the port until stop() is called
+    void serve(int port) throws IOException;
+
+    void stop();
+
+    // "threads" - one platform thread per connection (the original model)
+    // "virtual" - one virtual thread per connection, falls back to a cached pool before Java 21
+    // "nio"     - a single selector thread for all connections
+    static ConnectionEngine create(String name, ServerObserver observer) {
+        switch (name.toLowerCase()) {
+            case "threads":
+                return new ThreadEngine(false, observer);
+            case "virtual":
+                return new ThreadEngine(true, observer);
+            case "nio":
+                return new NioEngine(observer);
+            default:
+                throw new IllegalArgumentException("Unknown connection engine: " + name);
+        }
+    }
+}
@@ -1,65 +1,49 @@
 package com.mycompany.tcpechoserver;
 
 import java.util.concurrent.RecursiveTask;
-import java.util.*;
 
-class EarlyLecture extends RecursiveTask<Boolean> {
-    private static final int SEQUENTIAL_THRESHOLD = 3;
+// Shifts lectures to the earliest free hours of their day.
+// Work is split across days only - a day is always compacted as one unit under
+// its own lock, so parallel tasks never compete for the same free slots.
+class EarlyLecture extends RecursiveTask<Integer> {
+    static final int SEQUENTIAL_THRESHOLD = 1; // days compacted by one leaf task
 
-    private List<Lecture> lectures;
-    private String day;
+    private final Timetable schedule;
+    private final int fromDay, toDay; // [fromDay, toDay)
+    private final int threshold;
 
-    public EarlyLecture(List<Lecture> lectures, String day) {
-        this.lectures = lectures;
-        this.day = day;
+    public EarlyLecture(Timetable schedule, int fromDay, int toDay) {
+        this(schedule, fromDay, toDay, SEQUENTIAL_THRESHOLD);
     }
 
+    EarlyLecture(Timetable schedule, int fromDay, int toDay, int threshold) {
+        this.schedule = schedule;
+        this.fromDay = fromDay;
+        this.toDay = toDay;
+        this.threshold = Math.max(1, threshold);
+    }
+
+    // Returns the number of lectures moved
     @Override
-    protected Boolean compute() {
-        if (lectures.size() <= SEQUENTIAL_THRESHOLD) {
-            return shiftLectures(lectures, day);
+    protected Integer compute() {
+        if (toDay - fromDay <= threshold) {
+            long start = System.nanoTime();
+            int moved = 0;
+            for (int day = fromDay; day < toDay; day++) {
+                moved += schedule.compactDay(day);
+            }
+            ServerMetrics.earlyLectureTasks.record(System.nanoTime() - start);
+            return moved;
         } else {
-            int mid = lectures.size() / 2;
-            EarlyLecture left = new EarlyLecture(lectures.subList(0, mid), day);
-            EarlyLecture right = new EarlyLecture(lectures.subList(mid, lectures.size()), day);
+            int mid = (fromDay + toDay) >>> 1;
+            EarlyLecture left = new EarlyLecture(schedule, fromDay, mid, threshold);
+            EarlyLecture right = new EarlyLecture(schedule, mid, toDay, threshold);
 
             left.fork();
-            boolean rightResult = right.compute();
-            boolean leftResult = left.join();
-
-            return leftResult || rightResult;
-        }
-    }
-
-    private boolean shiftLectures(List<Lecture> lectures, String day) {
-        boolean changed = false;
+            int rightResult = right.compute();
+            int leftResult = left.join();
 
-        for (Lecture lecture : lectures) {
-            String oldKey = day + " " + lecture.time;
-
-            // Find the index of the current time
-            int currentIndex = Arrays.asList(TCPEchoServer.HOURS).indexOf(lecture.time);
-
-            if (currentIndex <= 0) continue; // already earliest or invalid
-
-            // Try earlier time slots only
-            for (int i = 0; i < currentIndex; i++) {
-                String earlierTime = TCPEchoServer.HOURS[i];
-                String newKey = day + " " + earlierTime;
-
-                synchronized (TCPEchoServer.schedule) {
-                    if (!TCPEchoServer.schedule.containsKey(newKey)) {
-                        TCPEchoServer.schedule.remove(oldKey);
-                        lecture.time = earlierTime;
-                        TCPEchoServer.schedule.put(newKey, lecture);
-                        changed = true;
-                        break;
-                    }
-                }
-            }
+            return leftResult + rightResult;
         }
-
-        return changed;
     }
-
 }
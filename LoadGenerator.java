@@ -0,0 +1,328 @@
+package com.mycompany.hellofx;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+//Headless load generator speaking the ACTION|day|time|room|module protocol.
+//
+//  java -cp target/classes com.mycompany.hellofx.LoadGenerator [options]
+//    --host=HOST            server host (default localhost)
+//    --port=N               server port (default 1234)
+//    --connections=N        concurrent connections (default 16)
+//    --duration=SECONDS     measured run time (default 30)
+//    --warmup=SECONDS       run time before measuring starts (default 5)
+//    --rate=N               total requests per second, 0 = as fast as possible (default 0)
+//    --mix=add:40,remove:30,display:25,early:5   weights of generated requests;
+//                           find (FIND FREE in the generated room) is also accepted
+//    --trace=FILE           replay request lines from FILE instead of generating them;
+//                           a server log works too, its "Client Request: " lines are used
+//    --seed=N               seed for generated requests (default 1)
+//    --rooms=N              rooms used by generated requests (default 20)
+//    --modules=N            modules used by generated requests, keep within the
+//                           server's --max-modules (default 5)
+//
+//With --rate each connection sends on a fixed schedule and latency is measured from
+//when a request was due, not when it was sent, so a stalled server is charged for the
+//requests that queued up behind the stall (coordinated omission correction). Without
+//--rate every connection sends its next request as soon as the last one is answered.
+public class LoadGenerator {
+    private static final String[] DAYS = {"Monday", "Tuesday", "Wednesday", "Thursday", "Friday"};
+    private static final String[] HOURS = {"09:00", "10:00", "11:00", "12:00", "13:00", "14:00", "15:00", "16:00", "17:00"};
+    private static final String TRACE_PREFIX = "Client Request: ";
+
+    private String host = "localhost";
+    private int port = 1234;
+    private int connections = 16;
+    private long durationSeconds = 30;
+    private long warmupSeconds = 5;
+    private double rate;
+    private final Map<String, Integer> mix = new LinkedHashMap<>();
+    private List<String> trace;
+    private long seed = 1;
+    private int rooms = 20;
+    private int modules = 5;
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        try {
+            generator.parse(args);
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+        generator.run();
+    }
+
+    private void parse(String[] args) throws IOException {
+        String mixSpec = "add:40,remove:30,display:25,early:5";
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--host=")) host = value;
+            else if (arg.startsWith("--port=")) port = Integer.parseInt(value);
+            else if (arg.startsWith("--connections=")) connections = Integer.parseInt(value);
+            else if (arg.startsWith("--duration=")) durationSeconds = Long.parseLong(value);
+            else if (arg.startsWith("--warmup=")) warmupSeconds = Long.parseLong(value);
+            else if (arg.startsWith("--rate=")) rate = Double.parseDouble(value);
+            else if (arg.startsWith("--mix=")) mixSpec = value;
+            else if (arg.startsWith("--trace=")) trace = readTrace(value);
+            else if (arg.startsWith("--seed=")) seed = Long.parseLong(value);
+            else if (arg.startsWith("--rooms=")) rooms = Integer.parseInt(value);
+            else if (arg.startsWith("--modules=")) modules = Integer.parseInt(value);
+            else throw new IllegalArgumentException("Unknown argument: " + arg);
+        }
+
+        for (String part : mixSpec.split(",")) {
+            String[] kv = part.split(":");
+            if (kv.length != 2 || !List.of("add", "remove", "display", "early", "find").contains(kv[0])) {
+                throw new IllegalArgumentException("Bad mix entry: " + part);
+            }
+            mix.put(kv[0], Integer.parseInt(kv[1]));
+        }
+        if (rooms < 1 || modules < 1) {
+            throw new IllegalArgumentException("--rooms and --modules must be at least 1");
+        }
+        if (trace != null && trace.isEmpty()) {
+            throw new IllegalArgumentException("Trace has no requests");
+        }
+    }
+
+    private static List<String> readTrace(String file) throws IOException {
+        List<String> requests = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+            if (line.startsWith(TRACE_PREFIX)) {
+                line = line.substring(TRACE_PREFIX.length());
+            } else if (line.startsWith("Client") || line.startsWith("Server") || line.indexOf('|') < 0) {
+                continue; //other server log lines
+            }
+            //connection control lines would change how the server answers this connection
+            if (!line.isEmpty() && !List.of("STOP", "PIPELINE", "SUBSCRIBE", "UNSUBSCRIBE").contains(action(line))) {
+                requests.add(line);
+            }
+        }
+        return requests;
+    }
+
+    private void run() throws InterruptedException {
+        long start = System.nanoTime();
+        long measureFrom = start + warmupSeconds * 1_000_000_000L;
+        long end = measureFrom + durationSeconds * 1_000_000_000L;
+        long interval = rate > 0 ? (long) (connections * 1e9 / rate) : 0;
+
+        System.out.println("Running " + connections + " connections against " + host + ":" + port + " for "
+                + warmupSeconds + " s warmup + " + durationSeconds + " s, "
+                + (rate > 0 ? rate + " requests/s" : "closed loop")
+                + (trace != null ? ", replaying " + trace.size() + " traced requests" : ", mix " + mix) + "...");
+
+        Worker[] workers = new Worker[connections];
+        for (int i = 0; i < connections; i++) {
+            //stagger the connections' schedules across one interval
+            workers[i] = new Worker(i, start + interval * i / connections, interval, measureFrom, end);
+            workers[i].start();
+        }
+
+        Map<String, Histogram> byAction = new LinkedHashMap<>();
+        Histogram all = new Histogram();
+        long errors = 0;
+        long failedConnections = 0;
+        for (Worker worker : workers) {
+            worker.join();
+            if (worker.failure != null) {
+                failedConnections++;
+                System.err.println("Connection " + worker.index + " failed: " + worker.failure);
+            }
+            errors += worker.errors;
+            for (Map.Entry<String, Histogram> entry : worker.byAction.entrySet()) {
+                byAction.computeIfAbsent(entry.getKey(), k -> new Histogram()).add(entry.getValue());
+                all.add(entry.getValue());
+            }
+        }
+
+        double seconds = durationSeconds;
+        System.out.printf("Requests: %d in %d s = %.1f requests/s, %d ERROR responses, %d failed connections%n",
+                all.count(), durationSeconds, all.count() / seconds, errors, failedConnections);
+        System.out.println("Latency (ms)        count      p50      p99     p999      max");
+        print("all", all);
+        for (Map.Entry<String, Histogram> entry : byAction.entrySet()) {
+            print(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static void print(String name, Histogram h) {
+        System.out.printf("%-16s %8d %8.2f %8.2f %8.2f %8.2f%n", name, h.count(),
+                h.percentile(0.50) / 1000.0, h.percentile(0.99) / 1000.0, h.percentile(0.999) / 1000.0, h.max() / 1000.0);
+    }
+
+    //One connection, sending requests on its own schedule
+    private final class Worker extends Thread {
+        final int index;
+        final long firstDue;
+        final long interval;
+        final long measureFrom;
+        final long end;
+        final Map<String, Histogram> byAction = new LinkedHashMap<>();
+        final Random random;
+        long errors;
+        Exception failure;
+
+        Worker(int index, long firstDue, long interval, long measureFrom, long end) {
+            super("load-" + index);
+            this.index = index;
+            this.firstDue = firstDue;
+            this.interval = interval;
+            this.measureFrom = measureFrom;
+            this.end = end;
+            this.random = new Random(seed + index);
+        }
+
+        @Override
+        public void run() {
+            try (Socket socket = new Socket(host, port);
+                 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                 PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)))) {
+                int tracePos = index;
+                long due = firstDue;
+                while (true) {
+                    long now = System.nanoTime();
+                    if (interval > 0) {
+                        while (now < due) {
+                            LockSupport.parkNanos(due - now);
+                            now = System.nanoTime();
+                        }
+                    } else {
+                        due = now;
+                    }
+                    if (due >= end) break;
+
+                    String request = trace != null ? trace.get(tracePos++ % trace.size()) : generate();
+                    out.println(request);
+                    out.flush();
+                    String response = in.readLine();
+                    if (response == null) throw new IOException("Server closed the connection");
+                    long done = System.nanoTime();
+
+                    if (due >= measureFrom) {
+                        byAction.computeIfAbsent(action(request), k -> new Histogram()).record((done - due) / 1000);
+                        if (response.startsWith("ERROR")) errors++;
+                    }
+                    due += interval;
+                }
+
+                out.println("STOP");
+                out.flush();
+                in.readLine();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+
+        private String generate() {
+            int total = 0;
+            for (int weight : mix.values()) total += weight;
+            int pick = random.nextInt(Math.max(1, total));
+
+            String kind = "display";
+            for (Map.Entry<String, Integer> entry : mix.entrySet()) {
+                pick -= entry.getValue();
+                if (pick < 0) {
+                    kind = entry.getKey();
+                    break;
+                }
+            }
+
+            String day = DAYS[random.nextInt(DAYS.length)];
+            String time = HOURS[random.nextInt(HOURS.length)];
+            String room = "R" + random.nextInt(rooms);
+            switch (kind) {
+                case "add":
+                    return "ADD LECTURE|" + day + "|" + time + "|" + room + "|M" + random.nextInt(modules);
+                case "remove":
+                    return "REMOVE LECTURE|" + day + "|" + time + "|" + room + "|";
+                case "find":
+                    return "FIND FREE|" + day + "||" + room + "|";
+                case "early":
+                    return "EARLY LECTURES||||";
+                default:
+                    return "DISPLAY SCHEDULE||||";
+            }
+        }
+    }
+
+    private static String action(String request) {
+        int bar = request.indexOf('|');
+        return (bar < 0 ? request : request.substring(0, bar)).toUpperCase();
+    }
+
+    //Log-linear latency histogram in microseconds: exact below 128, then 64 buckets
+    //per power of two, so any recorded value is reported within 1.6%
+    static final class Histogram {
+        private static final int SUB_BUCKETS = 64;
+        private static final int MAX_MAGNITUDE = 40;
+        private final long[] counts = new long[2 * SUB_BUCKETS + (MAX_MAGNITUDE - 6) * SUB_BUCKETS];
+        private long count;
+        private long max;
+
+        void record(long micros) {
+            counts[index(Math.max(0, micros))]++;
+            count++;
+            max = Math.max(max, micros);
+        }
+
+        void add(Histogram other) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+            count += other.count;
+            max = Math.max(max, other.max);
+        }
+
+        long count() {
+            return count;
+        }
+
+        long max() {
+            return max;
+        }
+
+        //Highest value in the bucket holding the given fraction of recorded values
+        long percentile(double fraction) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(fraction * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(max, highestValue(i));
+            }
+            return max;
+        }
+
+        private static int index(long v) {
+            if (v < 2 * SUB_BUCKETS) return (int) v;
+            int magnitude = Math.min(MAX_MAGNITUDE, 63 - Long.numberOfLeadingZeros(v)); //>= 7
+            int shift = magnitude - 6;
+            long top = Math.min(2 * SUB_BUCKETS - 1, v >> shift);                        //64..127
+            return 2 * SUB_BUCKETS + (magnitude - 7) * SUB_BUCKETS + (int) (top - SUB_BUCKETS);
+        }
+
+        private static long highestValue(int index) {
+            if (index < 2 * SUB_BUCKETS) return index;
+            int magnitude = 7 + (index - 2 * SUB_BUCKETS) / SUB_BUCKETS;
+            long top = SUB_BUCKETS + (index - 2 * SUB_BUCKETS) % SUB_BUCKETS;
+            int shift = magnitude - 6;
+            return ((top + 1) << shift) - 1;
+        }
+    }
+}
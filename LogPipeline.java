@@ -0,0 +1,187 @@
+package com.mycompany.tcpechoserver;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Asynchronous log stage between request threads and the log's destination.
+//
+// log() puts the message in a bounded lock-free ring and returns; it never waits
+// for the GUI or the disk. When the ring is full the message is dropped and
+// counted, and the next drain reports how many were lost. One consumer drains
+// the ring in batches: ServerGUI once per frame, or a background writer thread
+// appending to a rolling file when the server runs headless.
+//
+// The ring is a multi-producer, single-consumer queue: each cell carries a
+// sequence number telling producers and the consumer whose turn it is.
+class LogPipeline implements ServerObserver {
+    private static final int CAPACITY = 1 << 14; // messages, a power of two
+    private static final int MASK = CAPACITY - 1;
+    private static final long FILE_DRAIN_NANOS = 50_000_000;
+
+    private final AtomicReferenceArray<String> messages = new AtomicReferenceArray<>(CAPACITY);
+    private final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+    private final AtomicLong head = new AtomicLong(); // next position to claim
+    private long tail;                                // next position to drain, consumer only
+    private final LongAdder dropped = new LongAdder();
+    private long droppedReported;                     // consumer only
+
+    private Thread fileWriter;
+    private volatile boolean closed;
+
+    LogPipeline() {
+        for (int i = 0; i < CAPACITY; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    @Override
+    public void log(String message) {
+        long pos = head.get();
+        while (true) {
+            int cell = (int) pos & MASK;
+            long diff = sequences.get(cell) - pos;
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    messages.set(cell, message);
+                    sequences.set(cell, pos + 1); // hands the cell to the consumer
+                    return;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                dropped.increment(); // full - the consumer hasn't freed this cell yet
+                return;
+            } else {
+                pos = head.get();    // another producer took the cell
+            }
+        }
+    }
+
+    // Appends every queued message as a line to 'batch' and returns how many
+    // there were. Only one thread may drain.
+    int drainTo(StringBuilder batch) {
+        int count = 0;
+        while (true) {
+            int cell = (int) tail & MASK;
+            if (sequences.get(cell) != tail + 1) break;
+
+            batch.append(messages.get(cell)).append('\n');
+            messages.set(cell, null);
+            sequences.set(cell, tail + CAPACITY); // free for the producer one lap later
+            tail++;
+            count++;
+        }
+
+        long lost = dropped.sum();
+        if (lost != droppedReported) {
+            batch.append("(").append(lost - droppedReported).append(" log messages dropped)\n");
+            droppedReported = lost;
+            count++;
+        }
+        return count;
+    }
+
+    // Headless mode: drains to 'path' on a background thread, rolling the file
+    // over to path.1 .. path.<keep> once it reaches 'maxBytes'
+    void startFileWriter(Path path, long maxBytes, int keep) throws IOException {
+        RollingFile file = new RollingFile(path, maxBytes, keep);
+        fileWriter = new Thread(() -> {
+            StringBuilder batch = new StringBuilder(8192);
+            try {
+                while (!closed) {
+                    if (drainTo(batch) == 0) {
+                        LockSupport.parkNanos(FILE_DRAIN_NANOS);
+                        continue;
+                    }
+                    file.write(batch);
+                    batch.setLength(0);
+                }
+                drainTo(batch);
+                file.write(batch);
+            } catch (IOException e) {
+                System.err.println("Log file error: " + e.getMessage());
+            } finally {
+                file.close();
+            }
+        }, "log-writer");
+        fileWriter.setDaemon(true);
+        fileWriter.start();
+    }
+
+    // Writes out what is still queued and stops the file writer
+    void close() {
+        closed = true;
+        if (fileWriter != null) {
+            LockSupport.unpark(fileWriter);
+            try {
+                fileWriter.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static final class RollingFile {
+        private final Path path;
+        private final long maxBytes;
+        private final int keep;
+        private Writer out;
+        private long size; // approximate, counts chars
+
+        RollingFile(Path path, long maxBytes, int keep) throws IOException {
+            this.path = path;
+            this.maxBytes = maxBytes;
+            this.keep = keep;
+            open();
+        }
+
+        private void open() throws IOException {
+            out = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            size = Files.size(path);
+        }
+
+        // One write and flush per batch
+        void write(CharSequence batch) throws IOException {
+            if (batch.length() == 0) return;
+            if (size >= maxBytes) roll();
+
+            out.append(batch);
+            out.flush();
+            size += batch.length();
+        }
+
+        // path -> path.1 -> path.2 ..., the oldest beyond 'keep' is deleted
+        private void roll() throws IOException {
+            out.close();
+            Files.deleteIfExists(sibling(keep));
+            for (int i = keep - 1; i >= 1; i--) {
+                Path older = sibling(i);
+                if (Files.exists(older)) Files.move(older, sibling(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (keep > 0) Files.move(path, sibling(1), StandardCopyOption.REPLACE_EXISTING);
+            else Files.deleteIfExists(path);
+            open();
+        }
+
+        private Path sibling(int n) {
+            return path.resolveSibling(path.getFileName() + "." + n);
+        }
+
+        void close() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                System.err.println("Error closing log file: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,447 @@
+package com.mycompany.tcpechoserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Non-blocking engine - one selector thread reads request lines and writes
+// responses for every connection, so idle clients cost a buffer rather than a thread.
+// The requests themselves run on a pool of WORKERS threads, at most one per
+// connection at a time, so each connection's requests are handled and answered in
+// order while a request that blocks holds up only its own connection.
+// Reading from a connection pauses while MAX_QUEUED_LINES of its lines wait.
+//
+// Subscribed connections are queued by their ChangeFeed subscriber when events
+// are pending; the selector thread wakes up and writes them. A connection still
+// writing its last batch is left alone until the socket drains, so a slow
+// subscriber never holds more than one batch plus its coalesced slots.
+// An EXPORT's rows are encoded BODY_CHUNK characters at a time as the socket
+// drains, and the connection's later requests wait, unhandled, until they are out.
+// Once a second the selector also closes connections idle past --idle-timeout
+// that are neither subscribed nor still being served.
+class NioEngine implements ConnectionEngine {
+    private static final int BUFFER_SIZE = 4096;
+    private static final int BODY_CHUNK = 64 * 1024;
+    private static final long IDLE_SWEEP_MILLIS = 1000;
+    private static final int WORKERS = 64;
+    private static final int MAX_QUEUED_LINES = 4096;
+
+    private final ServerObserver observer;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ConcurrentLinkedQueue<SelectionKey> feedReady = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<SelectionKey> served = new ConcurrentLinkedQueue<>(); // have worker output
+    private final ExecutorService workers = Executors.newFixedThreadPool(WORKERS, r -> {
+        Thread t = new Thread(r, "nio-worker");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile Selector selector;
+    private long lastSweep = System.nanoTime();
+
+    NioEngine(ServerObserver observer) {
+        this.observer = observer;
+    }
+
+    // Per-connection state, attached to its SelectionKey
+    private static class Connection {
+        // Selector thread only
+        final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+        boolean closeAfterWrite;
+        Iterator<String> body; // EXPORT rows still to encode
+        long lastRead = System.nanoTime();
+
+        // Used by one worker at a time
+        final ClientSession session;
+
+        // Guarded by this, shared by the selector thread and the connection's worker
+        final ArrayDeque<String> lines = new ArrayDeque<>(); // read, not yet handled
+        final ArrayDeque<Object> output = new ArrayDeque<>(); // responses as ByteBuffers, then possibly a body
+        boolean working;     // a worker is handling lines
+        boolean heldForBody; // a body is being written; later lines wait for it
+        boolean inputEnded;  // end of stream, or a request too long to read
+        String lastWord;     // response to send after the queued lines, for a request too long
+        boolean stopped;     // no more lines are handled
+        boolean readPaused;  // MAX_QUEUED_LINES were waiting when the selector last looked
+        boolean closed;
+
+        Connection(ServerObserver observer, Runnable feedReady) {
+            session = new ClientSession(observer, feedReady);
+        }
+    }
+
+    @Override
+    public void serve(int port) throws IOException {
+        selector = Selector.open();
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            observer.log("Server started (nio). Waiting for clients...");
+
+            while (selector.isOpen()) {
+                selector.select(AdmissionControl.idleTimeoutMillis() > 0 ? IDLE_SWEEP_MILLIS : 0);
+                if (!selector.isOpen()) break;
+                collectServed();
+                sendFeeds();
+                closeIdle();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    try {
+                        if (!key.isValid()) continue;
+                        if (key.isAcceptable()) accept(server);
+                        else {
+                            if (key.isReadable()) read(key);
+                            if (key.isValid() && key.isWritable()) write(key);
+                        }
+                    } catch (IOException e) {
+                        observer.log("Client communication error: " + e.getMessage());
+                        close(key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (selector.isOpen()) throw e;
+        }
+    }
+
+    @Override
+    public void stop() {
+        try {
+            if (selector != null) selector.close();
+        } catch (IOException e) {
+            observer.log("Error closing selector.");
+        }
+        workers.shutdownNow();
+    }
+
+    private void accept(ServerSocketChannel server) throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) return;
+
+        if (!AdmissionControl.admitConnection()) {
+            // A fresh socket buffer always has room for the one line
+            channel.write(ByteBuffer.wrap((AdmissionControl.connectionRefused() + "\n").getBytes(StandardCharsets.UTF_8)));
+            channel.close();
+            return;
+        }
+
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(observer, () -> {
+            feedReady.add(key);
+            selector.wakeup();
+        }));
+        ServerMetrics.connectionOpened();
+        observer.log("Client connected: " + channel.socket().getInetAddress());
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection conn = (Connection) key.attachment();
+
+        readBuffer.clear();
+        int n = channel.read(readBuffer);
+        if (n < 0) {
+            synchronized (conn) {
+                conn.inputEnded = true;
+            }
+        } else {
+            conn.lastRead = System.nanoTime();
+            readBuffer.flip();
+            consume(conn, readBuffer);
+        }
+        schedule(key);
+        updateInterest(key);
+    }
+
+    // Queues the complete lines in 'bytes' for the connection's worker
+    private void consume(Connection conn, ByteBuffer bytes) {
+        List<String> complete = new ArrayList<>();
+        String tooLong = null;
+        while (bytes.hasRemaining()) {
+            byte b = bytes.get();
+            if (b == '\n') {
+                String request = conn.line.toString(StandardCharsets.UTF_8);
+                conn.line.reset();
+                if (request.endsWith("\r")) request = request.substring(0, request.length() - 1);
+                complete.add(request);
+            } else if (conn.line.size() == AdmissionControl.maxRequestBytes()) {
+                tooLong = AdmissionControl.requestTooLong();
+                observer.log(tooLong);
+                break;
+            } else {
+                conn.line.write(b);
+            }
+        }
+
+        synchronized (conn) {
+            if (conn.inputEnded) return;
+            conn.lines.addAll(complete);
+            if (tooLong != null) {
+                conn.lastWord = tooLong;
+                conn.inputEnded = true;
+            }
+        }
+    }
+
+    // Starts a worker on the connection's lines unless one is running or they must wait
+    private void schedule(SelectionKey key) {
+        Connection conn = (Connection) key.attachment();
+        synchronized (conn) {
+            if (conn.working || conn.heldForBody || conn.stopped || conn.closed) return;
+            if (conn.lines.isEmpty() && !conn.inputEnded) return;
+            conn.working = true;
+        }
+        workers.execute(() -> work(key));
+    }
+
+    // Runs on a worker: handles the connection's queued lines in order, handing
+    // responses to the selector thread as they are ready
+    private void work(SelectionKey key) {
+        Connection conn = (Connection) key.attachment();
+        while (true) {
+            String request;
+            boolean resume = false;
+            synchronized (conn) {
+                request = conn.closed || conn.stopped || conn.heldForBody ? null : conn.lines.poll();
+                if (request == null) {
+                    finish(key, conn);
+                    return;
+                }
+                if (conn.readPaused && conn.lines.size() < MAX_QUEUED_LINES / 2) {
+                    conn.readPaused = false;
+                    resume = true;
+                }
+            }
+
+            String response = conn.session.handle(request);
+            Iterator<String> body = conn.session.takeBody();
+            boolean wake;
+            synchronized (conn) {
+                wake = conn.output.isEmpty() || resume;
+                if (response != null) conn.output.add(ByteBuffer.wrap((response + "\n").getBytes(StandardCharsets.UTF_8)));
+                if (body != null) {
+                    conn.output.add(body);
+                    conn.heldForBody = true;
+                }
+                if (conn.session.isStopped()) conn.stopped = true;
+                wake &= !conn.output.isEmpty() || resume;
+            }
+            if (wake) signal(key);
+        }
+    }
+
+    // The worker is done for now; caller holds the connection's lock
+    private void finish(SelectionKey key, Connection conn) {
+        if (!conn.closed && !conn.stopped && !conn.heldForBody && conn.lines.isEmpty() && conn.inputEnded) {
+            if (conn.lastWord != null) {
+                conn.output.add(ByteBuffer.wrap((conn.lastWord + "\n").getBytes(StandardCharsets.UTF_8)));
+                conn.lastWord = null;
+            }
+            conn.stopped = true;
+        }
+        conn.working = false;
+        if (conn.closed) {
+            conn.session.close();
+        } else {
+            // The selector writes what is left, queues waiting events or closes
+            signal(key);
+        }
+    }
+
+    private void signal(SelectionKey key) {
+        served.add(key);
+        selector.wakeup();
+    }
+
+    // Moves worker output into the write queues and writes it
+    private void collectServed() {
+        SelectionKey key;
+        while ((key = served.poll()) != null) {
+            if (!key.isValid()) continue;
+            Connection conn = (Connection) key.attachment();
+            synchronized (conn) {
+                Object out;
+                while ((out = conn.output.poll()) != null) {
+                    if (out instanceof ByteBuffer) {
+                        conn.pending.add((ByteBuffer) out);
+                    } else {
+                        @SuppressWarnings("unchecked")
+                        Iterator<String> rows = (Iterator<String>) out;
+                        conn.body = rows;
+                    }
+                }
+                if (conn.stopped && !conn.working) conn.closeAfterWrite = true;
+            }
+            try {
+                write(key);
+            } catch (IOException e) {
+                observer.log("Client communication error: " + e.getMessage());
+                close(key);
+            }
+        }
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection conn = (Connection) key.attachment();
+
+        while (true) {
+            // One gathering write for all queued responses
+            if (!conn.pending.isEmpty()) {
+                channel.write(conn.pending.toArray(new ByteBuffer[0]));
+                while (!conn.pending.isEmpty() && !conn.pending.peek().hasRemaining()) {
+                    conn.pending.poll();
+                }
+            }
+            if (!conn.pending.isEmpty()) {
+                updateInterest(key);
+                return;
+            }
+            if (conn.body == null) break;
+
+            fillBody(conn);
+            if (conn.body == null) {
+                // Its last chunk is queued ahead of anything the later requests write
+                synchronized (conn) {
+                    conn.heldForBody = false;
+                }
+                schedule(key);
+            }
+        }
+
+        if (conn.closeAfterWrite) {
+            close(key);
+            return;
+        }
+        // Events that arrived while the socket was backed up go out next
+        if (canQueueEvents(conn) && queueEvents(conn)) {
+            write(key);
+            return;
+        }
+        updateInterest(key);
+    }
+
+    // Reads while fewer than MAX_QUEUED_LINES wait and input has not ended; writes while output is queued
+    private void updateInterest(SelectionKey key) {
+        if (!key.isValid()) return;
+        Connection conn = (Connection) key.attachment();
+        boolean read;
+        synchronized (conn) {
+            conn.readPaused = conn.lines.size() >= MAX_QUEUED_LINES;
+            read = !conn.inputEnded && !conn.readPaused && !conn.closeAfterWrite;
+        }
+        key.interestOps((read ? SelectionKey.OP_READ : 0) | (conn.pending.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+    }
+
+    // Encodes the next BODY_CHUNK characters or so of the connection's body
+    private static void fillBody(Connection conn) {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < BODY_CHUNK && conn.body.hasNext()) {
+            sb.append(conn.body.next());
+        }
+        if (!conn.body.hasNext()) conn.body = null;
+        if (sb.length() > 0) {
+            conn.pending.add(ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    private void closeIdle() {
+        long timeout = AdmissionControl.idleTimeoutMillis();
+        long now = System.nanoTime();
+        if (timeout == 0 || now - lastSweep < IDLE_SWEEP_MILLIS * 1_000_000) return;
+        lastSweep = now;
+
+        for (SelectionKey key : new ArrayList<>(selector.keys())) {
+            if (!key.isValid() || !(key.attachment() instanceof Connection)) continue;
+            Connection conn = (Connection) key.attachment();
+            boolean busy = conn.session.subscriber() != null || !conn.pending.isEmpty() || conn.body != null;
+            synchronized (conn) {
+                busy |= conn.working || !conn.lines.isEmpty() || !conn.output.isEmpty();
+            }
+            if (!busy && now - conn.lastRead > timeout * 1_000_000) {
+                ServerMetrics.refused(AdmissionControl.Refusal.IDLE);
+                observer.log("Client idle for " + timeout / 1000 + " s, closing the connection.");
+                close(key);
+            }
+        }
+    }
+
+    private void sendFeeds() {
+        SelectionKey key;
+        while ((key = feedReady.poll()) != null) {
+            if (!key.isValid()) continue;
+
+            // Still writing earlier output or serving requests; write() queues the events once that is done
+            Connection conn = (Connection) key.attachment();
+            if (!conn.pending.isEmpty() || conn.body != null || !canQueueEvents(conn)) continue;
+
+            try {
+                if (queueEvents(conn)) write(key);
+            } catch (IOException e) {
+                observer.log("Client communication error: " + e.getMessage());
+                close(key);
+            }
+        }
+    }
+
+    // Events wait while a worker is serving the connection, so SUBSCRIBED always goes out before them
+    private static boolean canQueueEvents(Connection conn) {
+        synchronized (conn) {
+            return !conn.working && conn.output.isEmpty();
+        }
+    }
+
+    // Moves the subscriber's pending events into the output queue; false if there were none
+    private boolean queueEvents(Connection conn) {
+        ChangeFeed.Subscriber subscriber = conn.session.subscriber();
+        if (subscriber == null) return false;
+
+        String events = subscriber.drain();
+        if (events == null) return false;
+        conn.pending.add(ByteBuffer.wrap(events.getBytes(StandardCharsets.UTF_8)));
+        return true;
+    }
+
+    private void close(SelectionKey key) {
+        Connection conn = (Connection) key.attachment();
+        if (conn != null && key.isValid()) {
+            boolean working;
+            synchronized (conn) {
+                conn.closed = true;
+                working = conn.working;
+            }
+            // Otherwise the worker closes the session when it finishes its request
+            if (!working) conn.session.close();
+            ServerMetrics.connectionClosed();
+            AdmissionControl.connectionClosed();
+        }
+        key.cancel();
+        try {
+            key.channel().close();
+            observer.log("Client disconnected.");
+        } catch (IOException e) {
+            observer.log("Error closing client socket.");
+        }
+    }
+}
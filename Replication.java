@@ -0,0 +1,622 @@
+package com.mycompany.tcpechoserver;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Leader/follower replication of the schedule.
+//
+// A server started with --replication-port=N streams its write-ahead log records
+// to followers that connect to port N. Every write is one record carrying the
+// snapshot version it produced, so a follower applying them in version order
+// holds exactly the leader's schedule at every version. The last BACKLOG_RECORDS
+// records are kept in memory, with or without --wal, so a follower that lost its
+// connection resumes where it stopped; a new one, or one too far behind, is sent
+// a snapshot first:
+//
+//   follower: REPLICATE|<history>|<version>   the history and version it holds, "" at first
+//   leader:   SNAPSHOT|<history>|<client port>|<version>|<rows>, then <rows> EXPORT rows
+//         or  STREAM|<history>|<client port>
+//   leader:   RECORD|<base64 record> per write, HEARTBEAT|<version> after each batch and when idle
+//
+// <history> names the sequence of versions a server holds; it changes when a
+// follower replaces its schedule with a snapshot, so nobody resumes across that.
+//
+// A follower (--follow=HOST:PORT) serves reads from its own copy while it has
+// heard from its leader within --max-staleness milliseconds, and refuses them
+// after that. Writes are forwarded to the leader's client port and answered once
+// they have come back over replication, so a client reads its own writes on the
+// follower. Both must be started with the same calendar options.
+//
+// Failover is manual: PROMOTE|||| makes a follower take writes itself, and
+// FOLLOW|<host>:<port>||| points any server at a new leader's replication port.
+class Replication {
+    static final long DEFAULT_MAX_STALENESS_MILLIS = 2000;
+    static final int BACKLOG_RECORDS = 100_000;
+    private static final long HEARTBEAT_MILLIS = 250;
+    private static final long RECONNECT_MILLIS = 500;
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    private static final int READ_TIMEOUT_MILLIS = 10_000;
+    private static final int FORWARD_TIMEOUT_MILLIS = 120_000;
+    private static final int FORWARD_CONNECTIONS = 8;
+    private static final long IDLE_LINK_MILLIS = 30_000; // reconnect before the leader's --idle-timeout closes a link
+    private static final int MAX_EARLY_RECORDS = 10_000; // waiting on a missing version before resyncing
+
+    // Sent on to the leader by a follower
+    private static final EnumSet<Request.Action> WRITES = EnumSet.of(
+            Request.Action.ADD_LECTURE, Request.Action.REMOVE_LECTURE, Request.Action.MOVE, Request.Action.SWAP,
+            Request.Action.IMPORT_FILE, Request.Action.EARLY_LECTURES, Request.Action.EARLY_STATUS,
+            Request.Action.AUTO_SCHEDULE, Request.Action.AUTO_STATUS);
+
+    // Answered by a follower however stale it is; IMPORT and BATCH are forwarded
+    // by ClientSession once their lines are in
+    private static final EnumSet<Request.Action> LOCAL = EnumSet.of(
+            Request.Action.STATS, Request.Action.STOP, Request.Action.PROMOTE, Request.Action.FOLLOW,
+            Request.Action.UNSUBSCRIBE, Request.Action.IMPORT, Request.Action.BATCH);
+
+    private static ServerObserver observer = ServerObserver.CONSOLE;
+    private static int clientPort;
+    private static long maxStalenessMillis = DEFAULT_MAX_STALENESS_MILLIS;
+    private static Backlog backlog; // null without --replication-port
+    private static volatile String history = newHistory();
+    private static volatile Follower follower; // set while following a leader
+    private static final AtomicInteger followers = new AtomicInteger();
+    private static final Semaphore forwardSlots = new Semaphore(FORWARD_CONNECTIONS);
+    private static final ConcurrentLinkedQueue<LeaderLink> idleLinks = new ConcurrentLinkedQueue<>();
+
+    // The last BACKLOG_RECORDS records in the order they were appended, which is
+    // version order except between writes to different days
+    static final class Backlog {
+        private final byte[][] records = new byte[BACKLOG_RECORDS][];
+        private final long[] versions = new long[BACKLOG_RECORDS];
+        private long next;    // sequence number of the next record
+        private long first;   // oldest sequence number still held
+        private long dropped; // highest version no longer held
+
+        synchronized void add(long version, byte[] record) {
+            int i = (int) (next % records.length);
+            if (next - first == records.length) {
+                dropped = Math.max(dropped, versions[i]);
+                first++;
+            }
+            records[i] = record;
+            versions[i] = version;
+            next++;
+            notifyAll();
+        }
+
+        // Where to stream from for a follower holding every version up to 'version', or -1 if some it lacks were dropped
+        synchronized long startFor(long version) {
+            if (dropped > version) return -1;
+            long seq = first;
+            while (seq < next && versions[(int) (seq % records.length)] <= version) seq++;
+            return seq;
+        }
+
+        // Records from 'seq' on, waiting up to 'millis' for the first; null once 'seq' has been dropped
+        synchronized List<byte[]> await(long seq, long millis) throws InterruptedException {
+            if (seq == next) wait(millis);
+            if (seq < first) return null;
+
+            List<byte[]> batch = new ArrayList<>();
+            for (long s = seq; s < next && batch.size() < 1024; s++) {
+                batch.add(records[(int) (s % records.length)]);
+            }
+            return batch;
+        }
+
+        // Forgets every record, after the schedule was replaced by a snapshot
+        synchronized void clear() {
+            first = next;
+            dropped = 0;
+        }
+    }
+
+    // Called once at startup, after the schedule is restored
+    static void start(ServerOptions options, ServerObserver log) throws IOException {
+        observer = log;
+        clientPort = options.port;
+        maxStalenessMillis = options.maxStalenessMillis;
+
+        if (options.replicationPort > 0) {
+            Timetable schedule = TCPEchoServer.schedule;
+            if (!schedule.log().isEnabled()) schedule.setLog(WriteAheadLog.memoryOnly());
+            backlog = new Backlog();
+            schedule.log().setBacklog(backlog);
+
+            ServerSocket server = new ServerSocket(options.replicationPort);
+            Thread acceptor = new Thread(() -> acceptFollowers(server), "replication-leader");
+            acceptor.setDaemon(true);
+            acceptor.start();
+            observer.log("Accepting followers on port " + options.replicationPort + ".");
+        }
+        if (options.follow != null) {
+            follow(options.follow);
+        }
+    }
+
+    static boolean isFollower() {
+        return follower != null;
+    }
+
+    // A follower's answer to a request it does not serve from its own copy: a write
+    // forwarded to the leader, or a refusal while it is stale. Null to serve it here.
+    static String route(Request request) {
+        Follower f = follower;
+        if (f == null || LOCAL.contains(request.action)) return null;
+        if (request.action != null && WRITES.contains(request.action)) {
+            return forward(f, request.text(), Collections.emptyList());
+        }
+        return f.staleness();
+    }
+
+    // Collects the lines of an IMPORT or BATCH and forwards them with it to the leader
+    static ClientSession.Block forwarding(String header) {
+        List<String> lines = new ArrayList<>();
+        return new ClientSession.Block() {
+            @Override
+            public void add(String line) {
+                lines.add(line);
+            }
+
+            @Override
+            public String apply() {
+                Follower f = follower;
+                if (f == null) return "ERROR: Promoted to leader while the request was read, send it again.";
+                return forward(f, header, lines);
+            }
+        };
+    }
+
+    // PROMOTE: stop following and take writes here
+    static String promote() {
+        Follower f = follower;
+        if (f == null) {
+            return "ERROR: This server is not following a leader.";
+        }
+        follower = null;
+        f.stop();
+        observer.log("Promoted to leader at version " + TCPEchoServer.schedule.version() + ".");
+        return "PROMOTED | Version: " + TCPEchoServer.schedule.version()
+                + (backlog == null ? " | Started without --replication-port, so followers cannot connect." : "");
+    }
+
+    // FOLLOW|<host>:<port>: replicate from that leader from now on, starting with its snapshot
+    static String follow(String address) {
+        String[] hostPort = address(address.trim());
+        if (hostPort == null) {
+            return "ERROR: Invalid leader address: " + address.trim() + " (HOST:PORT).";
+        }
+        Follower f = new Follower(hostPort[0], Integer.parseInt(hostPort[1]));
+        Follower previous = follower;
+        follower = f;
+        if (previous != null) previous.stop();
+
+        Thread thread = new Thread(f, "replication-follower");
+        thread.setDaemon(true);
+        thread.start();
+        observer.log("Following the leader at " + f.address() + ".");
+        return "FOLLOWING | Leader: " + f.address();
+    }
+
+    // {host, port} of "HOST:PORT", or null
+    static String[] address(String text) {
+        int colon = text.lastIndexOf(':');
+        if (colon <= 0) return null;
+        String port = text.substring(colon + 1);
+        int number = TermCalendar.parseNumber(port, 0, port.length());
+        return number > 0 && number < 65536 ? new String[] {text.substring(0, colon), port} : null;
+    }
+
+    // STATS line, or null on a server that neither leads followers nor follows
+    static String report() {
+        Follower f = follower;
+        if (f != null) return f.report();
+        if (backlog != null) return "Replication: leader, " + followers.get() + " followers, history " + history;
+        return null;
+    }
+
+    private static String newHistory() {
+        return UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    private static void acceptFollowers(ServerSocket server) {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                Thread sender = new Thread(() -> serveFollower(socket), "replication-sender");
+                sender.setDaemon(true);
+                sender.start();
+            } catch (IOException e) {
+                observer.log("Replication error: " + e.getMessage());
+            }
+        }
+    }
+
+    // Streams to one follower until it disconnects, falls out of the backlog or this server's history is replaced
+    private static void serveFollower(Socket socket) {
+        String who = String.valueOf(socket.getRemoteSocketAddress());
+        followers.incrementAndGet();
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), 64 * 1024);
+
+            String hello = in.readLine();
+            String[] parts = hello == null ? new String[0] : hello.split("\\|", -1);
+            if (parts.length != 3 || !parts[0].equals("REPLICATE")) {
+                out.write("ERROR: Expected REPLICATE|<history>|<version>\n");
+                out.flush();
+                return;
+            }
+
+            String id = history;
+            long held = parts[2].isEmpty() ? -1 : ScheduleBatch.parseVersion(parts[2]);
+            long seq = parts[1].equals(id) && held >= 0 ? backlog.startFor(held) : -1;
+            if (seq >= 0) {
+                out.write("STREAM|" + id + "|" + clientPort + "\n");
+                observer.log("Follower " + who + " resumed after version " + held + ".");
+            } else {
+                // Records newer than the snapshot are all still in the backlog, so it streams on from there
+                ScheduleSnapshot snapshot = TCPEchoServer.schedule.snapshot();
+                seq = backlog.startFor(snapshot.version);
+                if (seq < 0) return; // overtaken while reading the snapshot; the follower tries again
+                out.write("SNAPSHOT|" + id + "|" + clientPort + "|" + snapshot.version + "|" + snapshot.size + "\n");
+                Iterator<String> rows = TimetableTransfer.rows(snapshot);
+                while (rows.hasNext()) {
+                    out.write(rows.next());
+                }
+                observer.log("Follower " + who + " sent a snapshot of version " + snapshot.version + ".");
+            }
+            out.flush();
+
+            Base64.Encoder base64 = Base64.getEncoder();
+            while (id.equals(history)) {
+                List<byte[]> records = backlog.await(seq, HEARTBEAT_MILLIS);
+                if (records == null) {
+                    observer.log("Follower " + who + " fell behind the backlog and will be sent a snapshot.");
+                    return;
+                }
+                for (byte[] record : records) {
+                    out.write("RECORD|" + base64.encodeToString(record) + "\n");
+                }
+                seq += records.size();
+                out.write("HEARTBEAT|" + TCPEchoServer.schedule.version() + "\n");
+                out.flush();
+            }
+        } catch (IOException e) {
+            observer.log("Follower " + who + " disconnected: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            followers.decrementAndGet();
+        }
+    }
+
+    // This server's schedule was replaced, so its own followers must start again from a snapshot
+    private static void historyReplaced() {
+        history = newHistory();
+        if (backlog != null) backlog.clear();
+    }
+
+    // Sends a write to the leader, then waits until it has come back over replication
+    private static String forward(Follower f, String request, List<String> lines) {
+        int port = f.leaderClientPort;
+        if (port <= 0) {
+            return "ERROR: Not yet in sync with the leader at " + f.address() + ", cannot forward the write.";
+        }
+
+        forwardSlots.acquireUninterruptibly();
+        LeaderLink link = idleLinks.poll();
+        try {
+            if (link != null && (!link.isFor(f.host, port) || link.idleMillis() > IDLE_LINK_MILLIS)) {
+                link.close();
+                link = null;
+            }
+            if (link == null) link = new LeaderLink(f.host, port);
+
+            String response = link.send(request, lines);
+            long version = link.version();
+            idleLinks.add(link);
+            link = null;
+
+            f.awaitApplied(version, maxStalenessMillis);
+            return response;
+        } catch (IOException e) {
+            return "ERROR: Leader " + f.host + ":" + port + " unavailable: " + e.getMessage();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "ERROR: Interrupted while forwarding to the leader.";
+        } finally {
+            if (link != null) link.close();
+            forwardSlots.release();
+        }
+    }
+
+    private static TreeSet<Integer> allDays(Timetable schedule) {
+        TreeSet<Integer> days = new TreeSet<>();
+        for (int day = 0; day < schedule.calendar.days; day++) {
+            days.add(day);
+        }
+        return days;
+    }
+
+    // Replicates from one leader until stopped, reconnecting when the connection drops
+    private static final class Follower implements Runnable {
+        final String host;
+        final int port;
+        private volatile boolean stopped;
+        private volatile Socket socket;
+        private volatile long lastHeard;          // System.nanoTime() of the leader's last line
+        private volatile long leaderVersion;
+        private volatile int leaderClientPort;
+        private volatile String leaderHistory = ""; // what the schedule holds, "" until the first snapshot
+        private long applied;                       // guarded by this; every version up to it is applied
+        private final TreeMap<Long, byte[]> early = new TreeMap<>(); // guarded by this; waiting on a lower version
+        private String lastError;
+
+        Follower(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        String address() {
+            return host + ":" + port;
+        }
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                try (Socket s = new Socket()) {
+                    socket = s;
+                    s.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+                    s.setTcpNoDelay(true);
+                    s.setSoTimeout(READ_TIMEOUT_MILLIS);
+                    BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8), 64 * 1024);
+                    Writer out = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8);
+                    out.write("REPLICATE|" + leaderHistory + "|" + (leaderHistory.isEmpty() ? "" : applied()) + "\n");
+                    out.flush();
+                    lastError = null;
+                    receive(in);
+                } catch (IOException | RuntimeException e) {
+                    // Logged once per kind of failure, not on every retry
+                    String error = e.getMessage();
+                    if (!stopped && (lastError == null || !lastError.equals(error))) {
+                        observer.log("Replication from " + address() + " interrupted: " + error);
+                    }
+                    lastError = error;
+                }
+                sleep(RECONNECT_MILLIS);
+            }
+        }
+
+        void stop() {
+            stopped = true;
+            Socket s = socket;
+            try {
+                if (s != null) s.close();
+            } catch (IOException e) {
+                observer.log("Error closing the replication connection.");
+            }
+        }
+
+        private void receive(BufferedReader in) throws IOException {
+            Base64.Decoder base64 = Base64.getDecoder();
+            String line;
+            while (!stopped && (line = in.readLine()) != null) {
+                String[] parts = line.split("\\|", -1);
+                switch (parts[0]) {
+                    case "SNAPSHOT":
+                        loadSnapshot(parts, in);
+                        break;
+                    case "STREAM":
+                        if (!parts[1].equals(leaderHistory)) throw new IOException("The leader resumed another history");
+                        leaderClientPort = Integer.parseInt(parts[2]);
+                        break;
+                    case "RECORD":
+                        hold(base64.decode(parts[1]));
+                        if (!in.ready()) applyReady();
+                        break;
+                    case "HEARTBEAT":
+                        applyReady();
+                        leaderVersion = Long.parseLong(parts[1]);
+                        break;
+                    default:
+                        throw new IOException("Unexpected line from the leader: " + line);
+                }
+                lastHeard = System.nanoTime();
+            }
+            if (!stopped) throw new EOFException("The leader closed the connection");
+        }
+
+        // Replaces the whole schedule with the leader's, at the leader's version
+        private void loadSnapshot(String[] parts, BufferedReader in) throws IOException {
+            long version = Long.parseLong(parts[3]);
+            int count = Integer.parseInt(parts[4]);
+            Timetable schedule = TCPEchoServer.schedule;
+            TimetableTransfer.Import rows = new TimetableTransfer.Import(schedule, "Row");
+            for (int i = 0; i < count; i++) {
+                String row = in.readLine();
+                if (row == null) throw new EOFException("The leader's snapshot is cut short");
+                rows.add(row);
+            }
+            if (rows.error() != null) {
+                throw new IOException("The leader's snapshot does not fit this calendar: " + rows.error());
+            }
+
+            synchronized (this) {
+                List<ReentrantLock> locks = schedule.lockDays(allDays(schedule));
+                try {
+                    schedule.replace(lecturesOf(schedule.snapshot()), rows.lectures());
+                    schedule.resetVersion(version);
+                    historyReplaced();
+                } finally {
+                    Timetable.unlockDays(locks);
+                }
+                applied = version;
+                early.clear();
+                leaderHistory = parts[1];
+                notifyAll();
+            }
+            leaderClientPort = Integer.parseInt(parts[2]);
+            leaderVersion = version;
+            observer.log("Loaded a snapshot of " + count + " lectures at version " + version + " from " + address() + ".");
+        }
+
+        private void hold(byte[] record) throws IOException {
+            long version = WriteAheadLog.recordVersion(record);
+            synchronized (this) {
+                if (version > applied) early.put(version, record);
+                if (early.size() > MAX_EARLY_RECORDS) {
+                    throw new IOException("Version " + (applied + 1) + " never arrived");
+                }
+            }
+        }
+
+        // Applies the held records that carry on from 'applied', under every day lock
+        private synchronized void applyReady() throws IOException {
+            if (early.isEmpty() || early.firstKey() != applied + 1) return;
+
+            Timetable schedule = TCPEchoServer.schedule;
+            List<ReentrantLock> locks = schedule.lockDays(allDays(schedule));
+            try {
+                while (!early.isEmpty() && early.firstKey() == applied + 1) {
+                    WriteAheadLog.applyRecord(early.pollFirstEntry().getValue(), schedule);
+                    applied++;
+                }
+            } finally {
+                Timetable.unlockDays(locks);
+            }
+            notifyAll();
+        }
+
+        private synchronized long applied() {
+            return applied;
+        }
+
+        synchronized void awaitApplied(long version, long millis) throws InterruptedException {
+            long deadline = System.nanoTime() + millis * 1_000_000;
+            while (applied < version) {
+                long left = (deadline - System.nanoTime()) / 1_000_000;
+                if (left <= 0) return;
+                wait(left);
+            }
+        }
+
+        // Why reads cannot be served here now, or null
+        String staleness() {
+            long heard = lastHeard;
+            if (leaderHistory.isEmpty() || heard == 0) {
+                return "ERROR: Not yet in sync with the leader at " + address() + ".";
+            }
+            long silent = (System.nanoTime() - heard) / 1_000_000;
+            if (silent > maxStalenessMillis) {
+                return "ERROR: Stale follower, no word from the leader at " + address() + " for " + silent + " ms.";
+            }
+            return null;
+        }
+
+        String report() {
+            long heard = lastHeard;
+            return "Replication: following " + address() + ", version " + applied() + " of " + leaderVersion
+                    + (heard == 0 ? ", not in sync" : ", last heard " + (System.nanoTime() - heard) / 1_000_000 + " ms ago");
+        }
+
+        private void sleep(long millis) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                stopped = true;
+            }
+        }
+    }
+
+    private static List<Lecture> lecturesOf(ScheduleSnapshot snapshot) {
+        List<Lecture> lectures = new ArrayList<>(snapshot.size);
+        for (int d = 0; d < snapshot.dayCount(); d++) {
+            for (int s = 0; s < snapshot.slotsPerDay(); s++) {
+                Collections.addAll(lectures, snapshot.startingAt(d, s));
+            }
+        }
+        return lectures;
+    }
+
+    // One pooled connection to the leader's client port
+    private static final class LeaderLink {
+        final String host;
+        final int port;
+        private final Socket socket;
+        private final BufferedReader in;
+        private final Writer out;
+        private long lastUsed = System.nanoTime();
+
+        LeaderLink(String host, int port) throws IOException {
+            this.host = host;
+            this.port = port;
+            socket = new Socket();
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(FORWARD_TIMEOUT_MILLIS);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        }
+
+        boolean isFor(String host, int port) {
+            return this.host.equals(host) && this.port == port;
+        }
+
+        long idleMillis() {
+            return (System.nanoTime() - lastUsed) / 1_000_000;
+        }
+
+        String send(String request, List<String> lines) throws IOException {
+            lastUsed = System.nanoTime();
+            out.write(request);
+            out.write('\n');
+            for (String line : lines) {
+                out.write(line);
+                out.write('\n');
+            }
+            out.flush();
+            String response = in.readLine();
+            if (response == null) throw new EOFException("The leader closed the connection");
+            return response;
+        }
+
+        // The leader's version now, or -1 if it does not say
+        long version() throws IOException {
+            String response = send("SCHEDULE VERSION||||", Collections.emptyList());
+            return response.startsWith("Version: ") ? ScheduleBatch.parseVersion(response.substring("Version: ".length())) : -1;
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                observer.log("Error closing a connection to the leader.");
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.mycompany.tcpechoserver;
+
+// A parsed ACTION|day|time|room|module[|minutes][|version] request line.
+//
+// One instance is reused per connection: parse() walks the line once and
+// records field offsets, decoding the action, day, time and length in place
+// against the server's TermCalendar. Room and module strings are only cut out
+// of the line when a handler asks for them.
+class Request {
+    static final int FIELDS = 5;        // required
+    static final int MAX_FIELDS = 7;    // the lecture length in minutes is optional
+    static final int VERSION_FIELD = 6; // and so is the version a write expects, see ScheduleBatch
+
+    enum Action {
+        ADD_LECTURE("ADD LECTURE"),
+        REMOVE_LECTURE("REMOVE LECTURE"),
+        MOVE("MOVE"),
+        SWAP("SWAP"),
+        BATCH("BATCH"),
+        DISPLAY_SCHEDULE("DISPLAY SCHEDULE"),
+        DISPLAY_SINCE("DISPLAY SINCE"),
+        SCHEDULE_VERSION("SCHEDULE VERSION"),
+        EARLY_LECTURES("EARLY LECTURES"),
+        EARLY_STATUS("EARLY STATUS"),
+        AUTO_SCHEDULE("AUTO SCHEDULE"),
+        AUTO_STATUS("AUTO STATUS"),
+        MODULE_SCHEDULE("MODULE SCHEDULE"),
+        ROOM_SCHEDULE("ROOM SCHEDULE"),
+        FIND_FREE("FIND FREE"),
+        FIND_ALL_FREE("FIND ALL FREE"),
+        IMPORT("IMPORT"),
+        IMPORT_FILE("IMPORT FILE"),
+        EXPORT("EXPORT"),
+        EXPORT_FILE("EXPORT FILE"),
+        SUBSCRIBE("SUBSCRIBE"),
+        UNSUBSCRIBE("UNSUBSCRIBE"),
+        STATS("STATS"),
+        PROMOTE("PROMOTE"),
+        FOLLOW("FOLLOW"),
+        STOP("STOP");
+
+        final String command;
+
+        Action(String command) {
+            this.command = command;
+        }
+
+        private static final Action[] ALL = values();
+
+        // Case-insensitive match of line[start, end) against the command names
+        static Action match(CharSequence line, int start, int end) {
+            int len = end - start;
+            for (Action action : ALL) {
+                String cmd = action.command;
+                if (cmd.length() != len) continue;
+
+                int i = 0;
+                while (i < len && Character.toUpperCase(line.charAt(start + i)) == cmd.charAt(i)) i++;
+                if (i == len) return action;
+            }
+            return null;
+        }
+    }
+
+    private CharSequence line;
+    private final int[] starts = new int[MAX_FIELDS];
+    private final int[] ends = new int[MAX_FIELDS];
+    private int fieldCount;
+
+    Action action;
+    int dayIndex;
+    int minute;    // minutes after midnight, or -1 when the time is not "H:MM" / "HH:MM"
+    int slotIndex; // slot of the day the time starts, or -1
+    int minutes;   // lecture length, 0 when not given, -1 when not a number
+    private TermCalendar calendar;
+
+    // Parses line from offset 'from', replacing whatever this request held before
+    Request parse(CharSequence line, int from) {
+        this.line = line;
+        this.calendar = TCPEchoServer.schedule.calendar;
+        fieldCount = 0;
+
+        int start = from;
+        int len = line.length();
+        for (int i = from; i <= len && fieldCount < MAX_FIELDS; i++) {
+            if (i == len || line.charAt(i) == '|') {
+                starts[fieldCount] = start;
+                ends[fieldCount] = i;
+                fieldCount++;
+                start = i + 1;
+            }
+        }
+
+        action = Action.match(line, starts[0], ends[0]);
+        dayIndex = fieldCount > 1 ? calendar.dayIndex(line, starts[1], ends[1]) : -1;
+        minute = fieldCount > 2 ? TermCalendar.parseMinute(line, starts[2], ends[2]) : -1;
+        slotIndex = minute < 0 ? -1 : calendar.slotIndex(minute);
+        minutes = fieldCount > 5 && starts[5] < ends[5] ? TermCalendar.parseNumber(line, starts[5], ends[5]) : 0;
+        return this;
+    }
+
+    Request parse(CharSequence line) {
+        return parse(line, 0);
+    }
+
+    int fieldCount() {
+        return fieldCount;
+    }
+
+    String field(int i) {
+        return i < fieldCount ? line.subSequence(starts[i], ends[i]).toString() : "";
+    }
+
+    // The request as sent, without a pipelined "<id>#" tag
+    String text() {
+        return line.subSequence(starts[0], line.length()).toString();
+    }
+
+    String actionText() {
+        return field(0);
+    }
+
+    String day() {
+        return dayIndex >= 0 ? calendar.dayLabel(dayIndex) : field(1);
+    }
+
+    String time() {
+        return slotIndex >= 0 ? calendar.timeLabel(slotIndex) : field(2);
+    }
+
+    String room() {
+        return field(3);
+    }
+
+    String module() {
+        return field(4);
+    }
+}
@@ -0,0 +1,385 @@
+package com.mycompany.tcpechoserver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Writes applied together or not at all, under one acquisition of the locks of
+// every day they touch:
+//
+//   MOVE|<day>|<time>|<room>|<to day>@<to time>[@<to room>]|[<minutes>]|[<version>]
+//   SWAP|<day>|<time>|<room>|<day>@<time>[@<room>]||[<version>]
+//   ADD LECTURE|<day>|<time>|<room>|<module>|[<minutes>]|<version>
+//   REMOVE LECTURE|<day>|<time>|<room>|||<version>
+//   BATCH|<lines>|[<version>]||   the next <lines> lines are ADD LECTURE, REMOVE LECTURE, MOVE or SWAP
+//
+// MOVE keeps the module, the room unless <to room> is given and the length
+// unless <minutes> is. SWAP trades two lectures' start times and rooms. As in
+// REMOVE LECTURE the room may be left out when one lecture starts at that time.
+//
+// A write given a <version> is applied only if the schedule is still at that
+// version, i.e. unchanged since the client read it with DISPLAY SCHEDULE or
+// SCHEDULE VERSION; otherwise nothing changes and the response is
+// "ERROR: Version conflict ...". Checking that means holding every day's lock,
+// so clients pass a version only when they need one.
+//
+// The operations are played in order against copies of the bitmaps of the rooms
+// and modules they touch, so each sees the ones before it, and only the net change
+// is applied with Timetable.replace: one snapshot version, one log record. A MOVE
+// therefore never leaves its module briefly without lectures, and the module
+// limit is checked against the end state only.
+class ScheduleBatch implements ClientSession.Block {
+    static final int MAX_OPERATIONS = 1000;
+    static final long ANY_VERSION = -1;
+    static final long INVALID_VERSION = -2;
+
+    private static final class Operation {
+        final int number;           // position in the batch, for errors
+        final Request.Action action;
+        final Lecture lecture;      // ADD LECTURE
+        final int slot;             // the lecture removed, moved or swapped starts here,
+        final String room;          // in this room, empty when it is the only one starting there
+        final int toSlot;           // MOVE: new start; SWAP: the other lecture's start
+        final String toRoom;        // MOVE: new room, empty to keep it; SWAP: the other lecture's room
+        final int length;           // MOVE: new length in slots, 0 to keep it
+
+        Operation(int number, Request.Action action, Lecture lecture, int slot, String room, int toSlot, String toRoom, int length) {
+            this.number = number;
+            this.action = action;
+            this.lecture = lecture;
+            this.slot = slot;
+            this.room = room;
+            this.toSlot = toSlot;
+            this.toRoom = toRoom;
+            this.length = length;
+        }
+    }
+
+    private final Timetable schedule;
+    private final TermCalendar calendar;
+    private final long expected;
+    private final boolean single; // one request rather than a BATCH: no "Operation N" in errors
+    private final Request request = new Request();
+    private final List<Operation> operations = new ArrayList<>();
+    private int number;
+    private String error; // the first invalid operation; later ones are still counted, not kept
+    private String done;  // success response of a single request
+    private Lecture removedLecture; // by a single REMOVE LECTURE, whose response depends on the module being left
+
+    // Lectures as the operations played so far left them, under the locks
+    private final Map<Integer, Map<String, Lecture>> changed = new HashMap<>(); // slot -> room -> lecture, null once removed
+    private final Map<String, long[]> roomBusy = new HashMap<>();
+    private final Map<String, long[]> moduleBusy = new HashMap<>();
+    private final Map<String, Integer> lectureCounts = new HashMap<>();
+
+    ScheduleBatch(Timetable schedule, long expected, boolean single) {
+        this.schedule = schedule;
+        this.calendar = schedule.calendar;
+        this.expected = expected;
+        this.single = single;
+    }
+
+    // MOVE, SWAP, or ADD LECTURE / REMOVE LECTURE with a version
+    static String applyOne(Request request) {
+        String text = request.field(Request.VERSION_FIELD).trim();
+        long expected = parseVersion(text);
+        if (expected == INVALID_VERSION) {
+            return "ERROR: Invalid version: " + text;
+        }
+        ScheduleBatch batch = new ScheduleBatch(TCPEchoServer.schedule, expected, true);
+        batch.add(request);
+        return batch.apply();
+    }
+
+    // ANY_VERSION when empty
+    static long parseVersion(String text) {
+        if (text.isEmpty()) return ANY_VERSION;
+        try {
+            long version = Long.parseLong(text);
+            return version >= 0 ? version : INVALID_VERSION;
+        } catch (NumberFormatException e) {
+            return INVALID_VERSION;
+        }
+    }
+
+    @Override
+    public void add(String line) {
+        add(request.parse(line));
+    }
+
+    void add(Request parsed) {
+        number++;
+        if (error != null) return;
+
+        String invalid = parse(parsed);
+        if (invalid != null) error = single ? invalid : "Operation " + number + ": " + invalid;
+    }
+
+    private String parse(Request parsed) {
+        if (parsed.fieldCount() < Request.FIELDS) {
+            return "Invalid request format.";
+        }
+        if (!single && !parsed.field(Request.VERSION_FIELD).isEmpty()) {
+            return "Give the expected version on the BATCH line.";
+        }
+
+        Request.Action action = parsed.action;
+        if (action == Request.Action.ADD_LECTURE) {
+            String invalid = TCPEchoServer.invalidLecture(parsed);
+            if (invalid != null) return invalid;
+            Lecture lecture = calendar.lecture(parsed.dayIndex, parsed.slotIndex, TCPEchoServer.lectureSlots(parsed), parsed.room(), parsed.module());
+            operations.add(new Operation(number, action, lecture, lecture.slot, lecture.room, -1, "", 0));
+            return null;
+        }
+        if (action != Request.Action.REMOVE_LECTURE && action != Request.Action.MOVE && action != Request.Action.SWAP) {
+            return "Only ADD LECTURE, REMOVE LECTURE, MOVE and SWAP can be batched, not " + parsed.actionText() + ".";
+        }
+        if (parsed.dayIndex < 0 || parsed.slotIndex < 0) {
+            return "No lecture found at the specified time.";
+        }
+        int slot = schedule.slot(parsed.dayIndex, parsed.slotIndex);
+        if (action == Request.Action.REMOVE_LECTURE) {
+            operations.add(new Operation(number, action, null, slot, parsed.room(), -1, "", 0));
+            return null;
+        }
+
+        // MOVE and SWAP name where to: <day>@<time>[@<room>]
+        String[] target = parsed.module().split("@", -1);
+        if (target.length < 2 || target.length > 3) {
+            return "Expected <day>@<time>[@<room>] but got: " + parsed.module();
+        }
+        String day = target[0].trim();
+        String time = target[1].trim();
+        int toDay = calendar.dayIndex(day, 0, day.length());
+        int minute = TermCalendar.parseMinute(time, 0, time.length());
+        if (!calendar.isAligned(minute)) {
+            return calendar.alignmentHint();
+        }
+        if (toDay < 0) {
+            return "Invalid day: " + day;
+        }
+        int toSlotOfDay = calendar.slotIndex(minute);
+        if (toSlotOfDay < 0) {
+            return "Lectures must be between " + calendar.timeLabel(0) + " and " + calendar.lastStart() + ".";
+        }
+
+        int length = 0;
+        if (action == Request.Action.MOVE && parsed.minutes != 0) {
+            length = TCPEchoServer.lectureSlots(parsed);
+            if (length < 0) return TCPEchoServer.invalidLength(parsed);
+        }
+        String toRoom = target.length == 3 ? target[2].trim() : "";
+        operations.add(new Operation(number, action, null, slot, parsed.room(), schedule.slot(toDay, toSlotOfDay), toRoom, length));
+        return null;
+    }
+
+    // Plays every operation and applies the result, or nothing; returns the response
+    @Override
+    public String apply() {
+        if (error != null) {
+            return failed(error);
+        }
+        if (operations.isEmpty()) {
+            return "ERROR: Nothing to change.";
+        }
+
+        TreeSet<Integer> days = new TreeSet<>();
+        for (int day = 0; expected != ANY_VERSION && day < calendar.days; day++) {
+            days.add(day);
+        }
+        for (Operation op : operations) {
+            days.add(schedule.dayOf(op.slot));
+            if (op.toSlot >= 0) days.add(schedule.dayOf(op.toSlot));
+        }
+
+        long version;
+        List<ReentrantLock> locks = schedule.lockDays(days);
+        try {
+            if (schedule.log().hasFailed()) {
+                return failed(WriteAheadLog.FAILED);
+            }
+            if (expected != ANY_VERSION && schedule.version() != expected) {
+                return "ERROR: Version conflict: the schedule is at version " + schedule.version() + ", not " + expected + ". Nothing changed.";
+            }
+
+            // moduleLock keeps writers of other days from changing the module count under the limit check
+            synchronized (schedule.moduleLock) {
+                for (Operation op : operations) {
+                    String clash = play(op);
+                    if (clash != null) {
+                        return failed(single ? clash : "Operation " + op.number + ": " + clash);
+                    }
+                }
+                String overLimit = overModuleLimit();
+                if (overLimit != null) {
+                    return failed(overLimit);
+                }
+
+                List<Lecture> removed = new ArrayList<>();
+                List<Lecture> added = new ArrayList<>();
+                netChange(removed, added);
+                version = schedule.replace(removed, added);
+                if (single && removedLecture != null) {
+                    done = TCPEchoServer.lectureRemoved(removedLecture, !schedule.hasModule(removedLecture.module));
+                }
+            }
+        } finally {
+            Timetable.unlockDays(locks);
+        }
+
+        if (!schedule.log().awaitDurable()) {
+            return "ERROR: Changes applied but could not be written to the log.";
+        }
+        return (single ? done : "Batch applied: " + operations.size() + " operations") + " | Version: " + version;
+    }
+
+    private String failed(String message) {
+        return single ? "ERROR: " + message : "ERROR: Nothing changed. " + message;
+    }
+
+    // Plays one operation on the copies; returns why it cannot be applied, or null
+    private String play(Operation op) {
+        switch (op.action) {
+            case ADD_LECTURE: {
+                Lecture lecture = op.lecture;
+                done = "Lecture scheduled: " + lecture.module + " on " + lecture.day + " at " + lecture.time + " in room " + lecture.room;
+                return book(lecture);
+            }
+            case REMOVE_LECTURE: {
+                Lecture lecture = find(op.slot, op.room);
+                if (lecture == null) return notFound(op.slot, op.room);
+                unbook(lecture);
+                removedLecture = lecture;
+                return null;
+            }
+            case MOVE: {
+                Lecture lecture = find(op.slot, op.room);
+                if (lecture == null) return notFound(op.slot, op.room);
+                unbook(lecture);
+
+                int length = op.length > 0 ? op.length : lecture.length;
+                Lecture moved = lectureAt(op.toSlot, op.toRoom.isEmpty() ? lecture.room : op.toRoom, length, lecture.module);
+                if (moved == null) return "Lectures must end by " + calendar.endOfDay() + ".";
+                done = "Lecture moved: " + moved.module + " to " + moved.day + " at " + moved.time + " in room " + moved.room;
+                return book(moved);
+            }
+            case SWAP: {
+                Lecture first = find(op.slot, op.room);
+                if (first == null) return notFound(op.slot, op.room);
+                Lecture second = find(op.toSlot, op.toRoom);
+                if (second == null) return notFound(op.toSlot, op.toRoom);
+                if (first == second) return "A lecture cannot be swapped with itself.";
+                unbook(first);
+                unbook(second);
+
+                Lecture firstMoved = lectureAt(second.slot, second.room, first.length, first.module);
+                Lecture secondMoved = lectureAt(first.slot, first.room, second.length, second.module);
+                if (firstMoved == null || secondMoved == null) return "Lectures must end by " + calendar.endOfDay() + ".";
+                done = "Lectures swapped: " + firstMoved.module + " on " + firstMoved.day + " at " + firstMoved.time + " in room " + firstMoved.room
+                        + ", " + secondMoved.module + " on " + secondMoved.day + " at " + secondMoved.time + " in room " + secondMoved.room;
+                String clash = book(firstMoved);
+                return clash != null ? clash : book(secondMoved);
+            }
+            default:
+                throw new IllegalStateException("Not a batch operation: " + op.action);
+        }
+    }
+
+    // A lecture starting at the slot, or null if it would run past the end of the day
+    private Lecture lectureAt(int slot, String room, int length, String module) {
+        int slotOfDay = schedule.slotOfDay(slot);
+        if (slotOfDay + length > calendar.slotsPerDay) return null;
+        return calendar.lecture(schedule.dayOf(slot), slotOfDay, length, room, module);
+    }
+
+    private String book(Lecture lecture) {
+        int from = lecture.slot;
+        int to = from + lecture.length;
+        long[] room = roomBusy.computeIfAbsent(lecture.room, schedule::roomBusy);
+        long[] module = moduleBusy.computeIfAbsent(lecture.module, schedule::moduleBusy);
+        if (!Timetable.isClear(room, from, to)) {
+            return "Room " + lecture.room + " is already booked at " + lecture.time + " on " + lecture.day + ".";
+        }
+        if (!Timetable.isClear(module, from, to)) {
+            return "Module " + lecture.module + " already has a lecture at " + lecture.time + " on " + lecture.day + ".";
+        }
+        Timetable.set(room, from, to);
+        Timetable.set(module, from, to);
+        changed.computeIfAbsent(from, s -> new HashMap<>()).put(lecture.room, lecture);
+        lectureCounts.put(lecture.module, lectureCount(lecture.module) + 1);
+        return null;
+    }
+
+    private void unbook(Lecture lecture) {
+        int from = lecture.slot;
+        int to = from + lecture.length;
+        Timetable.clear(roomBusy.computeIfAbsent(lecture.room, schedule::roomBusy), from, to);
+        Timetable.clear(moduleBusy.computeIfAbsent(lecture.module, schedule::moduleBusy), from, to);
+        changed.computeIfAbsent(from, s -> new HashMap<>()).put(lecture.room, null);
+        lectureCounts.put(lecture.module, lectureCount(lecture.module) - 1);
+    }
+
+    private int lectureCount(String module) {
+        Integer count = lectureCounts.get(module);
+        return count != null ? count : schedule.lectureCount(module);
+    }
+
+    // Lectures starting in the slot after the operations played so far
+    private List<Lecture> startingAt(int slot) {
+        Map<String, Lecture> rooms = changed.get(slot);
+        List<Lecture> lectures = new ArrayList<>();
+        for (Lecture lecture : schedule.startingAt(slot)) {
+            if (rooms == null || !rooms.containsKey(lecture.room)) lectures.add(lecture);
+        }
+        if (rooms != null) {
+            for (Lecture lecture : rooms.values()) {
+                if (lecture != null) lectures.add(lecture);
+            }
+        }
+        return lectures;
+    }
+
+    // The room's lecture starting in the slot, or with no room the only one starting there; null if none
+    private Lecture find(int slot, String room) {
+        if (room.isEmpty()) {
+            List<Lecture> starting = startingAt(slot);
+            return starting.size() == 1 ? starting.get(0) : null;
+        }
+        Map<String, Lecture> rooms = changed.get(slot);
+        return rooms != null && rooms.containsKey(room) ? rooms.get(room) : schedule.get(slot, room);
+    }
+
+    private String notFound(int slot, String room) {
+        int starting = room.isEmpty() ? startingAt(slot).size() : 0;
+        return starting > 1 ? starting + " lectures start at that time, give the room." : "No lecture found at the specified time.";
+    }
+
+    // Null unless the operations leave more modules with lectures than the limit, and more than now
+    private String overModuleLimit() {
+        int limit = TCPEchoServer.moduleLimit;
+        if (limit <= 0) return null;
+
+        int before = schedule.moduleCount();
+        int after = before;
+        for (Map.Entry<String, Integer> count : lectureCounts.entrySet()) {
+            boolean had = schedule.hasModule(count.getKey());
+            boolean has = count.getValue() > 0;
+            if (has != had) after += has ? 1 : -1;
+        }
+        return after > limit && after > before ? "Cannot add more than " + limit + " modules." : null;
+    }
+
+    // Lectures in the schedule the operations took out, and new ones they left in
+    private void netChange(List<Lecture> removed, List<Lecture> added) {
+        for (Map.Entry<Integer, Map<String, Lecture>> slot : changed.entrySet()) {
+            for (Map.Entry<String, Lecture> room : slot.getValue().entrySet()) {
+                Lecture before = schedule.get(slot.getKey(), room.getKey());
+                if (before != null) removed.add(before);
+                if (room.getValue() != null) added.add(room.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.mycompany.tcpechoserver;
+
+// Immutable view of the whole timetable at one version.
+//
+// Timetable publishes a new snapshot after every write. Only the days that were
+// written get a new DaySnapshot, the others are shared with the previous
+// version, and each part renders its DISPLAY SCHEDULE text at most once.
+final class ScheduleSnapshot {
+    final long version;
+    final int size;
+    private final DaySnapshot[] days;
+    private volatile String rendered;
+
+    // One day's lectures, copied under that day's lock
+    static final class DaySnapshot {
+        final int day;
+        private final TermCalendar calendar;
+        private final Lecture[][] slots; // lectures starting in each slot of the day, sorted by room
+        final int count;
+        private volatile String rendered;
+
+        DaySnapshot(TermCalendar calendar, int day, Lecture[][] slots) {
+            this.calendar = calendar;
+            this.day = day;
+            this.slots = slots;
+
+            int n = 0;
+            for (Lecture[] lectures : slots) {
+                n += lectures.length;
+            }
+            this.count = n;
+        }
+
+        // Lectures in start order, then EMPTY for each slot no lecture starts in or runs through
+        String render() {
+            String text = rendered;
+            if (text == null) {
+                StringBuilder sb = new StringBuilder();
+                int coveredUntil = 0;
+                for (int s = 0; s < slots.length; s++) {
+                    for (Lecture lecture : slots[s]) {
+                        sb.append(lecture).append(";");
+                        coveredUntil = Math.max(coveredUntil, s + lecture.length);
+                    }
+                    if (s >= coveredUntil) {
+                        sb.append("EMPTY | Day: ").append(calendar.dayLabel(day)).append(" | Time: ").append(calendar.timeLabel(s)).append(";");
+                    }
+                }
+                text = sb.toString();
+                rendered = text; // benign race, every thread renders the same text
+            }
+            return text;
+        }
+    }
+
+    ScheduleSnapshot(long version, int size, DaySnapshot[] days) {
+        this.version = version;
+        this.size = size;
+        this.days = days;
+    }
+
+    // Copy of this snapshot with one day replaced, one version later
+    ScheduleSnapshot withDay(DaySnapshot day) {
+        DaySnapshot[] copy = days.clone();
+        copy[day.day] = day;
+        return new ScheduleSnapshot(version + 1, size - days[day.day].count + day.count, copy);
+    }
+
+    // Copy with several days replaced, still only one version later
+    ScheduleSnapshot withDays(DaySnapshot[] changed) {
+        DaySnapshot[] copy = days.clone();
+        int newSize = size;
+        for (DaySnapshot day : changed) {
+            newSize += day.count - copy[day.day].count;
+            copy[day.day] = day;
+        }
+        return new ScheduleSnapshot(version + 1, newSize, copy);
+    }
+
+    // Same contents under another version number
+    ScheduleSnapshot withVersion(long newVersion) {
+        return new ScheduleSnapshot(newVersion, size, days);
+    }
+
+    int dayCount() {
+        return days.length;
+    }
+
+    // Lectures starting on the day
+    int lecturesOn(int day) {
+        return days[day].count;
+    }
+
+    int slotsPerDay() {
+        return days[0].slots.length;
+    }
+
+    // Lectures starting in a slot of the day, sorted by room; the array is shared, do not modify it
+    Lecture[] startingAt(int day, int slotOfDay) {
+        return days[day].slots[slotOfDay];
+    }
+
+    // The DISPLAY SCHEDULE response for this version
+    String render() {
+        if (size == 0) return "No lectures scheduled.";
+
+        String text = rendered;
+        if (text == null) {
+            StringBuilder sb = new StringBuilder();
+            for (DaySnapshot day : days) {
+                sb.append(day.render());
+            }
+            text = sb.toString();
+            rendered = text;
+        }
+        return text;
+    }
+}
@@ -0,0 +1,168 @@
+package com.mycompany.hellofx;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import javafx.scene.Scene;
+import javafx.scene.control.Label;
+import javafx.scene.layout.GridPane;
+import javafx.stage.Stage;
+
+//Schedule window that is built once and then updated in place.
+//The cell labels are kept between refreshes and a cell is only relabelled when its
+//text changes, so a refresh that changes one lecture touches one node.
+//A cell lists every room booked at its start time. The grid shows the default
+//week; lectures on other days or times (e.g. "Monday W2", "09:15") are ignored.
+//Used on the FX thread only.
+class ScheduleView {
+    static final String[] DAYS = {"Monday", "Tuesday", "Wednesday", "Thursday", "Friday"};
+    static final String[] HOURS = {"09:00", "10:00", "11:00", "12:00", "13:00", "14:00", "15:00", "16:00", "17:00"};
+    static final String EMPTY = "EMPTY";
+
+    private final Label[][] cells = new Label[DAYS.length][HOURS.length];
+    private final String[][] contents = new String[DAYS.length][HOURS.length];
+    private final List<TreeMap<String, String>> bookings = new ArrayList<>(); //room -> "module\nroom" per cell
+    private Stage stage;
+
+    ScheduleView() {
+        for (int d = 0; d < DAYS.length; d++) {
+            for (int h = 0; h < HOURS.length; h++) {
+                contents[d][h] = EMPTY;
+                cells[d][h] = new Label(EMPTY);
+                cells[d][h].setStyle("-fx-border-color: black; -fx-padding: 5;");
+                bookings.add(new TreeMap<>());
+            }
+        }
+    }
+
+    void show() {
+        if (stage == null) {
+            stage = new Stage();
+            stage.setTitle("Lecture Schedule");
+            stage.setScene(new Scene(buildGrid(), 600, 400));
+        }
+
+        if (stage.isShowing()) {
+            stage.toFront();
+        } else {
+            stage.show();
+        }
+    }
+
+    private GridPane buildGrid() {
+        GridPane grid = new GridPane();
+        grid.setHgap(10);
+        grid.setVgap(10);
+
+        for (int d = 0; d < DAYS.length; d++) {
+            grid.add(new Label(DAYS[d]), d + 1, 0);
+        }
+        for (int h = 0; h < HOURS.length; h++) {
+            grid.add(new Label(HOURS[h]), 0, h + 1);
+        }
+        for (int d = 0; d < DAYS.length; d++) {
+            for (int h = 0; h < HOURS.length; h++) {
+                grid.add(cells[d][h], d + 1, h + 1);
+            }
+        }
+        return grid;
+    }
+
+    //Books or frees (module null) one room at one start time. Unknown days and times are ignored.
+    void set(String day, String time, String room, String module) {
+        int d = indexOf(DAYS, day);
+        int h = indexOf(HOURS, time);
+        if (d >= 0 && h >= 0) {
+            book(d, h, room, module);
+            refresh(d, h);
+        }
+    }
+
+    //Empties every cell, e.g. before a fresh feed subscription replays the schedule
+    void clear() {
+        for (int d = 0; d < DAYS.length; d++) {
+            for (int h = 0; h < HOURS.length; h++) {
+                bookings(d, h).clear();
+                refresh(d, h);
+            }
+        }
+    }
+
+    private TreeMap<String, String> bookings(int d, int h) {
+        return bookings.get(d * HOURS.length + h);
+    }
+
+    private void book(int d, int h, String room, String module) {
+        if (module == null) {
+            bookings(d, h).remove(room);
+        } else {
+            bookings(d, h).put(room, module + "\n" + room);
+        }
+    }
+
+    private void refresh(int d, int h) {
+        TreeMap<String, String> booked = bookings(d, h);
+        String content = booked.isEmpty() ? EMPTY : String.join("\n", booked.values());
+        if (!content.equals(contents[d][h])) {
+            contents[d][h] = content;
+            cells[d][h].setText(content);
+        }
+    }
+
+    //Applies a DISPLAY SCHEDULE response in one pass over the text. Entries are
+    //separated by ';' and look like "Module: M | Day: D | Time: T | Room: R" or
+    //"EMPTY | Day: D | Time: T". Cells are only relabelled where the text changes.
+    void applyResponse(String data) {
+        for (TreeMap<String, String> booked : bookings) {
+            booked.clear();
+        }
+
+        int start = 0;
+        while (start < data.length()) {
+            int end = data.indexOf(';', start);
+            if (end < 0) end = data.length();
+            applyEntry(data, start, end);
+            start = end + 1;
+        }
+
+        for (int d = 0; d < DAYS.length; d++) {
+            for (int h = 0; h < HOURS.length; h++) {
+                refresh(d, h);
+            }
+        }
+    }
+
+    private void applyEntry(String data, int start, int end) {
+        String module = null;
+        String room = null;
+        int d = -1;
+        int h = -1;
+
+        int field = start;
+        while (field < end) {
+            int next = data.indexOf(" | ", field);
+            if (next < 0 || next > end) next = end;
+
+            int colon = data.indexOf(": ", field);
+            if (colon >= 0 && colon < next) {
+                String value = data.substring(colon + 2, next);
+                if (data.startsWith("Module", field)) module = value;
+                else if (data.startsWith("Room", field)) room = value;
+                else if (data.startsWith("Day", field)) d = indexOf(DAYS, value);
+                else if (data.startsWith("Time", field)) h = indexOf(HOURS, value);
+            }
+            field = next + 3;
+        }
+
+        if (d < 0 || h < 0 || module == null || room == null) return;
+        book(d, h, room, module);
+    }
+
+    private static int indexOf(String[] names, String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,193 @@
+package com.mycompany.hellofx;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+//Client side of the connection to the scheduling server.
+//
+//All socket I/O runs on background threads: send() queues the request and returns
+//a future completed with the response, so the FX thread never waits on the network.
+//The connection is in pipelined mode ("<id>#<request>"), so several requests can be
+//outstanding at once. If it drops, the requests already written fail (they may or may
+//not have been applied) and the connection is reopened for the queued ones.
+class ServerConnection {
+    private static final long FIRST_RETRY_MILLIS = 100;
+    private static final long MAX_RETRY_MILLIS = 5000;
+    private static final long POLL_MILLIS = 250;
+
+    private final InetAddress host;
+    private final int port;
+    private final Consumer<String> status;
+
+    private final BlockingQueue<Outgoing> queue = new LinkedBlockingQueue<>();
+    private final ConcurrentHashMap<Long, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private volatile long written; //id of the last request written to the socket
+    private volatile Socket socket;
+    private volatile boolean closed;
+
+    private static final class Outgoing {
+        final long id;
+        final String request;
+
+        Outgoing(long id, String request) {
+            this.id = id;
+            this.request = request;
+        }
+    }
+
+    //'status' is told when the connection is made or lost; it is called on an I/O thread
+    ServerConnection(InetAddress host, int port, Consumer<String> status) {
+        this.host = host;
+        this.port = port;
+        this.status = status;
+
+        Thread writer = new Thread(this::writeLoop, "server-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    //Queues a request; the future completes with the response line
+    CompletableFuture<String> send(String request) {
+        CompletableFuture<String> response = new CompletableFuture<>();
+        if (closed) {
+            response.completeExceptionally(new IOException("Connection closed"));
+            return response;
+        }
+
+        long id = nextId.incrementAndGet();
+        inFlight.put(id, response);
+        queue.add(new Outgoing(id, request));
+        return response;
+    }
+
+    //Sends STOP and stops reconnecting; completes with the server's reply
+    CompletableFuture<String> close() {
+        CompletableFuture<String> reply = send("STOP");
+        closed = true;
+        return reply;
+    }
+
+    private void writeLoop() {
+        long retry = FIRST_RETRY_MILLIS;
+        PrintWriter out = null;
+
+        while (!(closed && queue.isEmpty())) {
+            if (out == null || socket.isClosed()) {
+                try {
+                    out = connect();
+                    retry = FIRST_RETRY_MILLIS;
+                } catch (IOException e) {
+                    status.accept("Error: Unable to connect to server, retrying...");
+                    sleep(retry);
+                    retry = Math.min(retry * 2, MAX_RETRY_MILLIS);
+                    continue;
+                }
+            }
+
+            Outgoing next;
+            try {
+                next = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (next == null) continue;
+
+            out.println(next.id + "#" + next.request);
+            written = next.id;
+
+            //one flush for a burst of queued requests
+            if (queue.isEmpty()) {
+                out.flush();
+            }
+            if (out.checkError()) {
+                disconnected(socket);
+            }
+        }
+    }
+
+    private PrintWriter connect() throws IOException {
+        Socket s = new Socket(host, port);
+        BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(s.getOutputStream())));
+
+        out.println("PIPELINE");
+        out.flush();
+        if (!"PIPELINE OK".equals(in.readLine())) {
+            s.close();
+            throw new IOException("Server did not accept pipelined requests");
+        }
+
+        socket = s;
+        Thread reader = new Thread(() -> readLoop(s, in), "server-reader");
+        reader.setDaemon(true);
+        reader.start();
+        status.accept("Connected to server.");
+        return out;
+    }
+
+    //Matches each "<id>#<response>" line to its request
+    private void readLoop(Socket s, BufferedReader in) {
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int separator = line.indexOf('#');
+                if (separator <= 0) continue;
+
+                CompletableFuture<String> response;
+                try {
+                    response = inFlight.remove(Long.parseLong(line.substring(0, separator)));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                if (response != null) {
+                    response.complete(line.substring(separator + 1));
+                }
+            }
+        } catch (IOException e) {
+            //handled below
+        }
+        disconnected(s);
+    }
+
+    //Closes the socket and fails every request already written to it
+    private void disconnected(Socket s) {
+        try {
+            s.close();
+        } catch (IOException e) {
+            //already closed
+        }
+
+        long lastWritten = written;
+        inFlight.entrySet().removeIf(entry -> {
+            if (entry.getKey() > lastWritten) return false;
+            entry.getValue().completeExceptionally(new IOException("Connection lost"));
+            return true;
+        });
+
+        if (!closed) {
+            status.accept("Error: Connection lost, reconnecting...");
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.mycompany.tcpechoserver;
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.scene.Scene;
@@ -8,14 +9,20 @@ import javafx.scene.layout.*;
 import javafx.stage.Stage;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
 
-public class ServerGUI extends Application {
+// Optional window on top of the server - it picks a connection engine and observes its log.
+// Log messages are queued in a LogPipeline and appended once per frame, and the
+// log area keeps only the last MAX_LOG_CHARS characters.
+public class ServerGUI extends Application implements ServerObserver {
+    private static final int MAX_LOG_CHARS = 200_000;
+    private static final long STATS_REFRESH_NANOS = 1_000_000_000;
 
-    private static final int PORT = 1234;
-    private ServerSocket serverSocket;
+    private ConnectionEngine engine;
     private TextArea logArea;
+    private final LogPipeline logs = new LogPipeline();
+    private final StringBuilder logBatch = new StringBuilder();
+    private Label statsLabel;
+    private long statsRefreshed;
 
     @Override
     public void start(Stage primaryStage) {
@@ -23,38 +30,66 @@ public class ServerGUI extends Application {
         logArea.setEditable(false);
         logArea.setWrapText(true);
 
+        // Live metrics panel, the same figures as the STATS command
+        statsLabel = new Label();
+        statsLabel.setWrapText(true);
+
+        new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                appendLogBatch();
+                if (now - statsRefreshed >= STATS_REFRESH_NANOS) {
+                    statsLabel.setText(String.join("\n", ServerMetrics.report()));
+                    statsRefreshed = now;
+                }
+            }
+        }.start();
+
         Button startButton = new Button("Start Server");
         startButton.setOnAction(e -> startServer());
 
         Button exitButton = new Button("Exit");
-        exitButton.setOnAction(e -> Platform.exit());
+        exitButton.setOnAction(e -> {
+            if (engine != null) engine.stop();
+            TCPEchoServer.closeLog();
+            Platform.exit();
+        });
 
         HBox buttonBox = new HBox(10, startButton, exitButton);
-        VBox layout = new VBox(10, new Label("TCP Echo Server Log:"), logArea, buttonBox);
+        VBox layout = new VBox(10, new Label("TCP Echo Server Log:"), logArea, new Label("Server Metrics:"), statsLabel, buttonBox);
         layout.setPadding(new javafx.geometry.Insets(10));
 
-        Scene scene = new Scene(layout, 600, 400);
+        Scene scene = new Scene(layout, 600, 600);
         primaryStage.setTitle("TCP Echo Server");
         primaryStage.setScene(scene);
         primaryStage.show();
     }
 
     private void startServer() {
-        log("Starting server on port " + PORT + "...");
+        if (engine != null) {
+            log("Server already running.");
+            return;
+        }
+
+        // Same arguments as the headless TCPEchoServer.main
+        ServerOptions options;
+        try {
+            options = ServerOptions.parse(getParameters().getRaw());
+            TCPEchoServer.configure(options);
+            TCPEchoServer.restore(options, this);
+            Replication.start(options, this);
+        } catch (IllegalArgumentException | IOException e) {
+            log("Cannot start server: " + e.getMessage());
+            return;
+        }
+
+        log("Starting server on port " + options.port + " using the " + options.engine + " engine, calendar "
+                + TCPEchoServer.schedule.calendar + "...");
+        engine = ConnectionEngine.create(options.engine, this);
 
         Thread serverThread = new Thread(() -> {
             try {
-                serverSocket = new ServerSocket(PORT);
-                log("Server started. Waiting for clients...");
-
-                while (true) {
-                    Socket clientSocket = serverSocket.accept();
-                    log("Client connected: " + clientSocket.getInetAddress());
-
-                    Thread clientThread = new Thread(new ClientHandler(clientSocket, this));
-                    clientThread.start();
-                }
-
+                engine.serve(options.port);
             } catch (IOException e) {
                 log("Server error: " + e.getMessage());
                 e.printStackTrace();
@@ -65,8 +100,24 @@ public class ServerGUI extends Application {
         serverThread.start();
     }
 
+    // Called by request threads; never touches the FX thread
+    @Override
     public void log(String message) {
-        Platform.runLater(() -> logArea.appendText(message + "\n"));
+        logs.log(message);
+    }
+
+    // FX thread, once per frame
+    private void appendLogBatch() {
+        if (logs.drainTo(logBatch) == 0) return;
+        logArea.appendText(logBatch.toString());
+        logBatch.setLength(0);
+
+        // Drop the oldest whole lines beyond the scrollback limit
+        int excess = logArea.getLength() - MAX_LOG_CHARS;
+        if (excess > 0) {
+            int lineEnd = logArea.getText(excess, Math.min(logArea.getLength(), excess + 1024)).indexOf('\n');
+            logArea.deleteText(0, lineEnd < 0 ? excess : excess + lineEnd + 1);
+        }
     }
 
     public static void main(String[] args) {
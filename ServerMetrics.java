@@ -0,0 +1,156 @@
+package com.mycompany.tcpechoserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Server-wide counters and latency histograms, reported by STATS and the ServerGUI panel.
+//
+// Recording is cheap enough to leave on: every counter is a LongAdder or an
+// atomic array slot, and nothing is allocated per call. Reports are built on
+// demand from whatever has been recorded so far, without stopping writers.
+class ServerMetrics {
+    // Latency histogram with power-of-two buckets: bucket b counts durations
+    // under 2^b microseconds that didn't fit in bucket b - 1
+    static final class Histogram {
+        private static final int BUCKETS = 40;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            long micros = nanos / 1000;
+            buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+            count.increment();
+            totalNanos.add(nanos);
+            if (nanos > maxNanos.get()) maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        // Upper bound in microseconds of the bucket holding the given fraction of calls
+        long percentileMicros(double fraction) {
+            long[] counts = new long[BUCKETS];
+            long n = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                counts[b] = buckets.get(b);
+                n += counts[b];
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(fraction * n));
+            long seen = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                seen += counts[b];
+                if (seen >= rank) return 1L << b;
+            }
+            return 1L << (BUCKETS - 1);
+        }
+
+        // "N <what>, mean X us, p50 <= Y us, p99 <= Z us, max W us"
+        String summary(String what) {
+            long n = count();
+            if (n == 0) return "0 " + what;
+            return n + " " + what + ", mean " + totalNanos.sum() / n / 1000 + " us, p50 <= " + percentileMicros(0.50)
+                    + " us, p99 <= " + percentileMicros(0.99) + " us, max " + maxNanos.get() / 1000 + " us";
+        }
+    }
+
+    private static final long STARTED = System.nanoTime();
+    private static final Request.Action[] ACTIONS = Request.Action.values();
+
+    // Indexed by Action.ordinal(); the last one counts lines with an unknown action
+    private static final Histogram[] requests = new Histogram[ACTIONS.length + 1];
+    static {
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = new Histogram();
+        }
+    }
+
+    static final Histogram dayLockWaits = new Histogram();       // contended day lock acquisitions only
+    private static final LongAdder dayLockAcquisitions = new LongAdder();
+    static final Histogram earlyLectureJobs = new Histogram();   // whole EARLY LECTURES runs
+    static final Histogram earlyLectureTasks = new Histogram();  // EarlyLecture leaf tasks
+    static final Histogram autoScheduleJobs = new Histogram();   // whole AUTO SCHEDULE runs, searches and commit
+
+    private static final AtomicLong activeConnections = new AtomicLong();
+    private static final LongAdder totalConnections = new LongAdder();
+    private static final LongAdder bytesIn = new LongAdder();
+    private static final LongAdder bytesOut = new LongAdder();
+
+    // Indexed by AdmissionControl.Refusal.ordinal()
+    private static final AdmissionControl.Refusal[] REFUSALS = AdmissionControl.Refusal.values();
+    private static final LongAdder[] refusals = new LongAdder[REFUSALS.length];
+    static {
+        for (int i = 0; i < refusals.length; i++) {
+            refusals[i] = new LongAdder();
+        }
+    }
+
+    static void request(Request.Action action, long nanos) {
+        requests[action == null ? ACTIONS.length : action.ordinal()].record(nanos);
+    }
+
+    static void dayLockAcquired(long waitedNanos) {
+        dayLockAcquisitions.increment();
+        if (waitedNanos > 0) dayLockWaits.record(waitedNanos);
+    }
+
+    static void connectionOpened() {
+        activeConnections.incrementAndGet();
+        totalConnections.increment();
+    }
+
+    static void connectionClosed() {
+        activeConnections.decrementAndGet();
+    }
+
+    // Counts characters of protocol text; requests and responses are ASCII
+    static void bytesIn(int n) {
+        bytesIn.add(n);
+    }
+
+    static void bytesOut(int n) {
+        bytesOut.add(n);
+    }
+
+    static void refused(AdmissionControl.Refusal refusal) {
+        refusals[refusal.ordinal()].increment();
+    }
+
+    // One entry per metric, e.g. "ADD LECTURE: 10 calls, mean 12 us, ..."
+    static List<String> report() {
+        List<String> lines = new ArrayList<>();
+        lines.add("Uptime: " + (System.nanoTime() - STARTED) / 1_000_000_000 + " s");
+        lines.add("Connections: " + activeConnections.get() + " active, " + totalConnections.sum() + " total");
+        lines.add("Bytes: " + bytesIn.sum() + " in, " + bytesOut.sum() + " out");
+        List<String> refused = new ArrayList<>();
+        for (AdmissionControl.Refusal refusal : REFUSALS) {
+            refused.add(refusals[refusal.ordinal()].sum() + " " + refusal.label);
+        }
+        lines.add("Refused or closed: " + String.join(", ", refused));
+
+        for (int i = 0; i < requests.length; i++) {
+            if (requests[i].count() == 0) continue;
+            lines.add((i < ACTIONS.length ? ACTIONS[i].command : "INVALID") + ": " + requests[i].summary("calls"));
+        }
+
+        lines.add("Day locks: " + dayLockAcquisitions.sum() + " acquisitions, " + dayLockWaits.summary("waits"));
+        lines.add("EARLY LECTURES: " + earlyLectureJobs.summary("jobs"));
+        lines.add("EarlyLecture: " + earlyLectureTasks.summary("tasks"));
+        lines.add("AUTO SCHEDULE: " + autoScheduleJobs.summary("jobs"));
+        String replication = Replication.report();
+        if (replication != null) lines.add(replication);
+        return lines;
+    }
+
+    // STATS response - the report on one line
+    static String stats() {
+        return "STATS | " + String.join("; ", report());
+    }
+}
@@ -0,0 +1,9 @@
+package com.mycompany.tcpechoserver;
+
+// Receives server log messages - ServerGUI when running with a window,
+// ServerObserver.CONSOLE when running headless
+interface ServerObserver {
+    ServerObserver CONSOLE = System.out::println;
+
+    void log(String message);
+}
@@ -0,0 +1,143 @@
+package com.mycompany.tcpechoserver;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+// Command line options shared by TCPEchoServer.main and ServerGUI:
+//   --engine=threads|virtual|nio  connection engine (default threads)
+//   --port=N                      listening port (default 1234)
+//   --wal=FILE                    write-ahead log, replayed at startup (default none)
+//   --durability=sync|group|async when log writes are fsynced (default group)
+//   --checkpoint-interval=SECONDS how often FILE.checkpoint is rewritten (default 60, 0 = only at shutdown)
+//   --log-file=FILE               server log when running headless (default server.log)
+//   --weeks=N                     weeks in the term; days are then "Monday W2" etc. (default 1)
+//   --day=HH:MM-HH:MM             teaching hours of every day (default 09:00-18:00)
+//   --slot-minutes=N              granularity of start times and lengths (default 60)
+//   --max-modules=N               modules that may have lectures at once, 0 = no limit (default 5)
+//   --data-dir=DIR                directory IMPORT FILE and EXPORT FILE read and write (default none, off)
+//   --replication-port=N          port followers replicate from (default none, no followers)
+//   --follow=HOST:PORT            start as a follower of the leader's replication port (default none, a leader)
+//   --max-staleness=MILLIS        a follower refuses reads after this long without word from its leader (default 2000)
+//   --max-connections=N           connections beyond this are refused (default 1024)
+//   --max-in-flight=N             requests running at once, more wait for a turn (default 256)
+//   --max-queued=N                requests waiting for a turn, more are refused as busy, 0 = none wait (default 1024)
+//   --rate-limit=N                requests a second per connection, 0 = no limit (default 0)
+//   --max-request-bytes=N         longest request line; a longer one closes the connection (default 65536)
+//   --idle-timeout=SECONDS        unsubscribed connections silent this long are closed, 0 = never (default 300)
+//   --max-queued-jobs=N           background jobs waiting to run, more are refused (default 32)
+class ServerOptions {
+    String engine = "threads";
+    int port = 1234;
+    Path walPath;
+    WriteAheadLog.Durability durability = WriteAheadLog.Durability.GROUP;
+    long checkpointIntervalSeconds = 60;
+    Path logPath = Paths.get("server.log");
+    int weeks = 1;
+    int firstMinute = TermCalendar.DEFAULT.firstMinute;
+    int lastMinute = TermCalendar.DEFAULT.lastMinute;
+    int slotMinutes = TermCalendar.DEFAULT.slotMinutes;
+    int maxModules = TCPEchoServer.DEFAULT_MODULE_LIMIT;
+    Path dataDir;
+    int replicationPort;
+    String follow;
+    long maxStalenessMillis = Replication.DEFAULT_MAX_STALENESS_MILLIS;
+    int maxConnections = AdmissionControl.DEFAULT_MAX_CONNECTIONS;
+    int maxInFlight = AdmissionControl.DEFAULT_MAX_IN_FLIGHT;
+    int maxQueued = AdmissionControl.DEFAULT_MAX_QUEUED;
+    int rateLimit;
+    int maxRequestBytes = AdmissionControl.DEFAULT_MAX_REQUEST_BYTES;
+    long idleTimeoutSeconds = AdmissionControl.DEFAULT_IDLE_TIMEOUT_SECONDS;
+    int maxQueuedJobs = AdmissionControl.DEFAULT_MAX_QUEUED_JOBS;
+
+    static ServerOptions parse(List<String> args) {
+        ServerOptions options = new ServerOptions();
+        for (String arg : args) {
+            if (arg.startsWith("--engine=")) {
+                options.engine = value(arg);
+            } else if (arg.startsWith("--port=")) {
+                options.port = Integer.parseInt(value(arg));
+            } else if (arg.startsWith("--wal=")) {
+                options.walPath = Paths.get(value(arg));
+            } else if (arg.startsWith("--durability=")) {
+                options.durability = WriteAheadLog.Durability.valueOf(value(arg).toUpperCase());
+            } else if (arg.startsWith("--checkpoint-interval=")) {
+                options.checkpointIntervalSeconds = Long.parseLong(value(arg));
+            } else if (arg.startsWith("--log-file=")) {
+                options.logPath = Paths.get(value(arg));
+            } else if (arg.startsWith("--weeks=")) {
+                options.weeks = Integer.parseInt(value(arg));
+            } else if (arg.startsWith("--day=")) {
+                String day = value(arg);
+                int dash = day.indexOf('-');
+                options.firstMinute = dash < 0 ? -1 : TermCalendar.parseMinute(day, 0, dash);
+                options.lastMinute = dash < 0 ? -1 : TermCalendar.parseMinute(day, dash + 1, day.length());
+                if (options.firstMinute < 0 || options.lastMinute < 0) {
+                    throw new IllegalArgumentException("Invalid teaching day: " + day);
+                }
+            } else if (arg.startsWith("--slot-minutes=")) {
+                options.slotMinutes = Integer.parseInt(value(arg));
+            } else if (arg.startsWith("--max-modules=")) {
+                options.maxModules = nonNegative(arg);
+            } else if (arg.startsWith("--replication-port=")) {
+                options.replicationPort = Integer.parseInt(value(arg));
+            } else if (arg.startsWith("--follow=")) {
+                options.follow = value(arg);
+                if (Replication.address(options.follow) == null) {
+                    throw new IllegalArgumentException("Invalid leader address: " + options.follow + " (HOST:PORT)");
+                }
+            } else if (arg.startsWith("--max-staleness=")) {
+                options.maxStalenessMillis = Long.parseLong(value(arg));
+            } else if (arg.startsWith("--max-connections=")) {
+                options.maxConnections = positive(arg);
+            } else if (arg.startsWith("--max-in-flight=")) {
+                options.maxInFlight = positive(arg);
+            } else if (arg.startsWith("--max-queued=")) {
+                options.maxQueued = nonNegative(arg);
+            } else if (arg.startsWith("--rate-limit=")) {
+                options.rateLimit = nonNegative(arg);
+            } else if (arg.startsWith("--max-request-bytes=")) {
+                options.maxRequestBytes = positive(arg);
+            } else if (arg.startsWith("--idle-timeout=")) {
+                options.idleTimeoutSeconds = nonNegative(arg);
+            } else if (arg.startsWith("--max-queued-jobs=")) {
+                options.maxQueuedJobs = positive(arg);
+            } else if (arg.startsWith("--data-dir=")) {
+                options.dataDir = Paths.get(value(arg)).toAbsolutePath().normalize();
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+        options.calendar(); // fails here on an impossible calendar
+        return options;
+    }
+
+    TermCalendar calendar() {
+        return new TermCalendar(weeks, firstMinute, lastMinute, slotMinutes);
+    }
+
+    Path checkpointPath() {
+        return walPath.resolveSibling(walPath.getFileName() + ".checkpoint");
+    }
+
+    private static String value(String arg) {
+        return arg.substring(arg.indexOf('=') + 1);
+    }
+
+    // 0 means no limit wherever this is used
+    private static int nonNegative(String arg) {
+        int n = Integer.parseInt(value(arg));
+        if (n < 0) {
+            throw new IllegalArgumentException("Must not be negative: " + arg);
+        }
+        return n;
+    }
+
+    private static int positive(String arg) {
+        int n = Integer.parseInt(value(arg));
+        if (n <= 0) {
+            throw new IllegalArgumentException("Must be at least 1: " + arg);
+        }
+        return n;
+    }
+}
@@ -2,154 +2,451 @@ package com.mycompany.tcpechoserver;
 
 import java.io.*;
 import java.net.*;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class TCPEchoServer {
-    private static ServerSocket servSock;
-    private static final int PORT = 1234;
+    static final int DEFAULT_MODULE_LIMIT = 5;
 
-    public static final String[] DAYS = {"Monday", "Tuesday", "Wednesday", "Thursday", "Friday"};
-    public static final String[] HOURS = {"09:00", "10:00", "11:00", "12:00", "13:00", "14:00", "15:00", "16:00", "17:00"};
+    // Shared data structures. Replaced by configure() at startup, before any
+    // connection is accepted, and never again.
+    static Timetable schedule = new Timetable(TermCalendar.DEFAULT);
+    static int moduleLimit = DEFAULT_MODULE_LIMIT; // 0 = no limit
+    static Path dataDir;                           // IMPORT FILE and EXPORT FILE are off without one
 
-    // Shared data structures
-    static final Map<String, Lecture> schedule = new HashMap<>();
-    static final Set<String> modules = new HashSet<>();
+    // Most starts one FIND ALL FREE lists
+    static final int FIND_LIMIT = 500;
 
+    // Headless log file rolls over at this size, keeping this many old files
+    static final long LOG_FILE_BYTES = 10 * 1024 * 1024;
+    static final int LOG_FILES_KEPT = 5;
+
+    // Headless entry point, see ServerOptions for the arguments
     public static void main(String[] args) {
+        ServerOptions options;
+        LogPipeline logs = new LogPipeline();
+        try {
+            options = ServerOptions.parse(Arrays.asList(args));
+            configure(options);
+            logs.startFileWriter(options.logPath, LOG_FILE_BYTES, LOG_FILES_KEPT);
+            restore(options, logs);
+            Replication.start(options, logs);
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println("Cannot start server: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        ConnectionEngine engine = ConnectionEngine.create(options.engine, logs);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            engine.stop();
+            closeLog();
+            logs.close();
+        }));
 
+        System.out.println("Starting server on port " + options.port + " using the " + options.engine + " engine, logging to "
+                + options.logPath + ", calendar " + schedule.calendar + "...");
+        try {
+            engine.serve(options.port);
+        } catch (IOException e) {
+            System.err.println("Server error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    // Builds an empty timetable for the configured calendar and module limit
+    static void configure(ServerOptions options) {
+        schedule = new Timetable(options.calendar());
+        moduleLimit = options.maxModules;
+        dataDir = options.dataDir;
+        AdmissionControl.configure(options);
+    }
+
+    private static ServerOptions persistence;
+    private static ServerObserver serverObserver = ServerObserver.CONSOLE; // set by restore()
+
+    // Loads the latest checkpoint and replays the log written after it, if a log
+    // is configured, then starts logging and background checkpoints
+    static void restore(ServerOptions options, ServerObserver observer) throws IOException {
+        serverObserver = observer;
+        if (options.walPath == null) return;
+
+        long start = System.nanoTime();
+        long checkpointVersion = Checkpoint.load(options.checkpointPath(), schedule);
+        int fromCheckpoint = schedule.size();
+
+        WriteAheadLog log = WriteAheadLog.open(options.walPath, options.durability, schedule, checkpointVersion);
+        schedule.setLog(log);
+        persistence = options;
+
+        observer.log("Restored " + schedule.size() + " lectures in " + (System.nanoTime() - start) / 1_000_000 + " ms: "
+                + fromCheckpoint + " from checkpoint version " + checkpointVersion + ", "
+                + log.replayedRecords + " log records replayed (" + options.durability.name().toLowerCase() + " durability).");
+
+        Checkpoint.startBackground(options.checkpointPath(), schedule, options.checkpointIntervalSeconds, observer);
+    }
+
+    // A final checkpoint on shutdown leaves nothing to replay on the next start
+    static void closeLog() {
+        try {
+            Checkpoint.stopBackground();
+            if (persistence != null) {
+                Checkpoint.take(persistence.checkpointPath(), schedule, serverObserver);
+            }
+            schedule.log().close();
+        } catch (IOException e) {
+            System.err.println("Error closing write-ahead log: " + e.getMessage());
+        }
     }
 
     // Called from ClientHandler
     public static String processRequest(String request) {
-        String[] parts = request.split("\\|");
-        if (parts.length < 5) {
+        return processRequest(new Request().parse(request));
+    }
+
+    static String processRequest(Request request) {
+        if (request.fieldCount() < Request.FIELDS) {
             return "ERROR: Invalid request format.";
         }
+        if (request.action == null) {
+            return handleInvalidAction(request.actionText().toUpperCase());
+        }
 
-        String action = parts[0].toUpperCase();
-        String day = parts[1];
-        String time = parts[2];
-        String room = parts[3];
-        String module = parts[4];
-
-        switch (action) {
-            case "ADD LECTURE":
-                return addLecture(day, time, room, module);
-            case "REMOVE LECTURE":
-                return removeLecture(day, time);
-            case "DISPLAY SCHEDULE":
+        // A write that names the version it expects is checked and applied by ScheduleBatch
+        boolean conditional = !request.field(Request.VERSION_FIELD).isEmpty();
+
+        switch (request.action) {
+            case ADD_LECTURE:
+                return conditional ? ScheduleBatch.applyOne(request) : addLecture(request);
+            case REMOVE_LECTURE:
+                return conditional ? ScheduleBatch.applyOne(request) : removeLecture(request.dayIndex, request.slotIndex, request.room());
+            case MOVE:
+            case SWAP:
+                return ScheduleBatch.applyOne(request);
+            case DISPLAY_SCHEDULE:
                 return displaySchedule();
-            case "EARLY LECTURES":
+            case DISPLAY_SINCE:
+                return displaySince(request.field(1));
+            case SCHEDULE_VERSION:
+                return "Version: " + schedule.version();
+            case EARLY_LECTURES:
                 return processEarlyLectures();
+            case EARLY_STATUS:
+            case AUTO_STATUS:
+                return BackgroundJobs.status(request.field(1));
+            case AUTO_SCHEDULE:
+                return AutoSchedule.submit(request, serverObserver);
+            case MODULE_SCHEDULE:
+                return moduleSchedule(request.module());
+            case ROOM_SCHEDULE:
+                return roomSchedule(request.room());
+            case FIND_FREE:
+                return findFree(request, false);
+            case FIND_ALL_FREE:
+                return findFree(request, true);
+            case IMPORT_FILE:
+                return TimetableTransfer.importFile(request);
+            case EXPORT_FILE:
+                return TimetableTransfer.exportFile(request);
+            case IMPORT:
+            case EXPORT:
+            case BATCH:
+                // Rows follow these on the connection, so ClientSession handles them
+                return "ERROR: " + request.action.command + " needs a client connection.";
+            case STATS:
+                return ServerMetrics.stats();
+            case PROMOTE:
+                return Replication.promote();
+            case FOLLOW:
+                return Replication.follow(request.field(1));
 
             default:
-                return handleInvalidAction(action);
+                return handleInvalidAction(request.action.command);
 
         }
     }
 
-    private static synchronized String addLecture(String day, String time, String room, String module) {
-        if (!isValidTime(time)) {
-            return "ERROR: Lectures must be on the hour (e.g., 14:00) in 24-hour format.";
+    private static String addLecture(Request request) {
+        String invalid = invalidLecture(request);
+        if (invalid != null) {
+            return "ERROR: " + invalid;
         }
+        return addLecture(schedule.calendar.lecture(request.dayIndex, request.slotIndex, lectureSlots(request), request.room(), request.module()));
+    }
 
-        String key = day + " " + time;
+    // Why the ADD LECTURE request cannot be booked whatever else is scheduled, or null
+    static String invalidLecture(Request request) {
+        TermCalendar calendar = schedule.calendar;
+        if (!calendar.isAligned(request.minute)) {
+            return calendar.alignmentHint();
+        }
+        if (request.dayIndex < 0) {
+            return "Invalid day: " + request.day();
+        }
+        if (request.slotIndex < 0) {
+            return "Lectures must be between " + calendar.timeLabel(0) + " and " + calendar.lastStart() + ".";
+        }
 
-        // Synchronize access to the schedule map
-        synchronized (schedule) {
-            for (Lecture lecture : schedule.values()) {
-                if (lecture.day.equals(day) && lecture.time.equals(time) && lecture.room.equals(room)) {
-                    return "ERROR: Room " + room + " is already booked at " + time + " on " + day + ".";
-                }
-            }
+        int length = lectureSlots(request);
+        if (length < 0) {
+            return invalidLength(request);
+        }
+        if (request.slotIndex + length > calendar.slotsPerDay) {
+            return "Lectures must end by " + calendar.endOfDay() + ".";
+        }
+        return null;
+    }
+
+    private static String addLecture(Lecture lecture) {
+        String room = lecture.room;
+        String module = lecture.module;
 
-            if (!modules.contains(module) && modules.size() >= 5) {
-                return "ERROR: Cannot add more than 5 modules.";
+        // Only this day is locked; moduleLock is nested inside it for the module limit
+        ReentrantLock dayLock = schedule.lockDay(schedule.dayOf(lecture.slot));
+        try {
+            if (schedule.log().hasFailed()) {
+                return "ERROR: " + WriteAheadLog.FAILED;
+            }
+            // Word-level checks of the room's and the module's occupancy bitmaps
+            if (!schedule.isRoomFree(room, lecture.slot, lecture.length)) {
+                return "ERROR: Room " + room + " is already booked at " + lecture.time + " on " + lecture.day + ".";
+            }
+            if (!schedule.isModuleFree(module, lecture.slot, lecture.length)) {
+                return "ERROR: Module " + module + " already has a lecture at " + lecture.time + " on " + lecture.day + ".";
             }
 
-            if (schedule.containsKey(key)) {
-                return "ERROR: Time slot already booked.";
+            synchronized (schedule.moduleLock) {
+                if (moduleLimit > 0 && !schedule.hasModule(module) && schedule.moduleCount() >= moduleLimit) {
+                    return "ERROR: Cannot add more than " + moduleLimit + " modules.";
+                }
+
+                // Add the lecture to the schedule, which also indexes its module and room
+                schedule.put(lecture);
             }
+        } finally {
+            dayLock.unlock();
+        }
 
-            // Add the lecture to the schedule and the module to the set
-            schedule.put(key, new Lecture(day, time, room, module));
-            modules.add(module);
+        // Wait for the log outside the day lock so concurrent writes share one fsync
+        if (!schedule.log().awaitDurable()) {
+            return "ERROR: Lecture scheduled but could not be written to the log.";
         }
 
-        return "Lecture scheduled: " + module + " on " + day + " at " + time + " in room " + room;
+        return "Lecture scheduled: " + module + " on " + lecture.day + " at " + lecture.time + " in room " + room;
+    }
+
+    // Slots taken by the request's lecture length, the calendar's default when none is given, or -1
+    static int lectureSlots(Request request) {
+        TermCalendar calendar = schedule.calendar;
+        return request.minutes == 0 ? calendar.defaultSlots : calendar.slotsFor(request.minutes);
+    }
+
+    static String invalidLength(Request request) {
+        return "Invalid length: " + request.field(5) + " (minutes, a multiple of " + schedule.calendar.slotMinutes + ").";
     }
 
-    private static synchronized String removeLecture(String day, String time) {
-        String key = day + " " + time;
+    // With several lectures starting at that time the room picks one
+    private static String removeLecture(int dayIndex, int slotIndex, String room) {
+        if (dayIndex < 0 || slotIndex < 0) {
+            return "ERROR: No lecture found at the specified time.";
+        }
 
-        synchronized (schedule) {
-            if (!schedule.containsKey(key)) {
+        Lecture removed;
+        boolean moduleRemoved;
+        ReentrantLock dayLock = schedule.lockDay(dayIndex);
+        try {
+            int slot = schedule.slot(dayIndex, slotIndex);
+            Lecture[] starting = schedule.startingAt(slot);
+            if (room.isEmpty() && starting.length > 1) {
+                return "ERROR: " + starting.length + " lectures start at that time, give the room.";
+            }
+            Lecture target = room.isEmpty() ? (starting.length == 1 ? starting[0] : null) : schedule.get(slot, room);
+            if (target == null) {
                 return "ERROR: No lecture found at the specified time.";
             }
+            if (schedule.log().hasFailed()) {
+                return "ERROR: " + WriteAheadLog.FAILED;
+            }
 
-            Lecture removed = schedule.remove(key);
+            synchronized (schedule.moduleLock) {
+                removed = schedule.remove(slot, target.room);
 
-            // Synchronize access to the modules set
-            synchronized (modules) {
-                boolean hasMoreLectures = schedule.values().stream().anyMatch(l -> l.module.equals(removed.module));
-                if (!hasMoreLectures) {
-                    modules.remove(removed.module);
-                    return "Lecture removed and module '" + removed.module + "' removed from system.";
-                }
+                // The module index drops the module with its last lecture
+                moduleRemoved = !schedule.hasModule(removed.module);
             }
+        } finally {
+            dayLock.unlock();
+        }
+
+        if (!schedule.log().awaitDurable()) {
+            return "ERROR: Lecture removed but could not be written to the log.";
+        }
+        return lectureRemoved(removed, moduleRemoved);
+    }
 
-            return "Lecture removed from " + day + " at " + time;
+    // Also the response of a REMOVE LECTURE with a version
+    static String lectureRemoved(Lecture removed, boolean moduleRemoved) {
+        if (moduleRemoved) {
+            return "Lecture removed and module '" + removed.module + "' removed from system.";
         }
+        return "Lecture removed from " + removed.day + " at " + removed.time;
     }
 
     public static String processEarlyLectures() {
-        ForkJoinPool pool = ForkJoinPool.commonPool();
-        List<RecursiveTask<Boolean>> tasks = new ArrayList<>();
+        try {
+            return compactSchedule() > 0 ? "Lectures shifted earlier where possible." : "No changes made.";
+        } catch (IllegalStateException e) {
+            return "ERROR: " + e.getMessage();
+        }
+    }
 
-        for (String day : DAYS) {
-            List<Lecture> dailyLectures = new ArrayList<>();
+    // Compacts every day in parallel on the common pool; returns the number of lectures moved
+    static int compactSchedule() {
+        if (schedule.log().hasFailed()) {
+            throw new IllegalStateException(WriteAheadLog.FAILED);
+        }
+        int moved = ForkJoinPool.commonPool().invoke(new EarlyLecture(schedule, 0, schedule.days));
+        if (!schedule.log().awaitDurable()) {
+            throw new IllegalStateException("Lectures moved but could not be written to the log.");
+        }
+        return moved;
+    }
 
-            synchronized (schedule) {
-                for (Lecture l : schedule.values()) {
-                    if (l.day.equals(day)) {
-                        dailyLectures.add(l);
-                    }
-                }
-            }
+    // Served from the latest snapshot, rendered once per version and never locked
+    private static String displaySchedule() {
+        return schedule.snapshot().render();
+    }
+
+    // DISPLAY SINCE|<version>|... - the schedule only if it changed after that version
+    private static String displaySince(String since) {
+        long known;
+        try {
+            known = Long.parseLong(since.trim());
+        } catch (NumberFormatException e) {
+            return "ERROR: Invalid version: " + since;
+        }
+
+        ScheduleSnapshot snapshot = schedule.snapshot();
+        if (snapshot.version <= known) {
+            return "NOT MODIFIED | Version: " + snapshot.version;
+        }
+        return "Version: " + snapshot.version + ";" + snapshot.render();
+    }
+
+    // FIND FREE|<day>[-<day>]|<not before>|<room>[,<room>...]|<module>[|minutes]
+    // The earliest start, on the given days (all days when empty) at or after the given time,
+    // where a lecture of that length fits in one of the rooms (every known room when none are
+    // named) and, when a module is given, does not clash with it. FIND ALL FREE lists every
+    // such start in time order, up to FIND_LIMIT. Answered from the occupancy bitmaps of each
+    // room, never by scanning the schedule.
+    private static String findFree(Request request, boolean all) {
+        TermCalendar calendar = schedule.calendar;
+
+        String days = request.field(1).trim();
+        int[] dayRange = dayRange(days);
+        if (dayRange == null) {
+            return "ERROR: Invalid day: " + days;
+        }
 
-            if (!dailyLectures.isEmpty()) {
-                EarlyLecture task = new EarlyLecture(dailyLectures, day);
-                tasks.add(task);
-                pool.execute(task);
+        int fromSlot = 0;
+        if (!request.field(2).isEmpty()) {
+            if (!calendar.isAligned(request.minute)) {
+                return "ERROR: " + calendar.alignmentHint();
+            }
+            fromSlot = request.slotIndex;
+            if (fromSlot < 0) {
+                return "ERROR: Lectures must be between " + calendar.timeLabel(0) + " and " + calendar.lastStart() + ".";
             }
         }
 
-        boolean updated = false;
-        for (RecursiveTask<Boolean> task : tasks) {
-            updated |= task.join();
+        int length = lectureSlots(request);
+        if (length < 0) {
+            return "ERROR: " + invalidLength(request);
+        }
+        if (fromSlot + length > calendar.slotsPerDay) {
+            return "ERROR: Lectures must end by " + calendar.endOfDay() + ".";
         }
 
-        return updated ? "Lectures shifted earlier where possible." : "No changes made.";
-    }
+        List<String> rooms = roomList(request.room(), ",");
+        if (rooms.isEmpty()) {
+            rooms = schedule.knownRooms();
+            if (rooms.isEmpty()) {
+                return "ERROR: No rooms are known yet, name the rooms to search.";
+            }
+        }
+        Collections.sort(rooms);
 
-    private static synchronized String displaySchedule() {
-        if (schedule.isEmpty()) return "No lectures scheduled.";
+        long[] allowed = schedule.startMask(dayRange[0], dayRange[1], fromSlot, length);
+        long[][] free = new long[rooms.size()][];
+        for (int r = 0; r < free.length; r++) {
+            free[r] = schedule.freeStarts(rooms.get(r), request.module(), allowed, length);
+        }
 
+        // Walk the starts in time order; a word of 64 starts is skipped when no room has any
         StringBuilder sb = new StringBuilder();
-        synchronized (schedule) {
-            for (String day : DAYS) {
-                for (String hour : HOURS) {
-                    String key = day + " " + hour;
-                    if (schedule.containsKey(key)) {
-                        sb.append(schedule.get(key)).append(";");
-                    } else {
-                        sb.append("EMPTY | Day: ").append(day).append(" | Time: ").append(hour).append(";");
+        int found = 0;
+        for (int w = 0; w < allowed.length; w++) {
+            long any = 0;
+            for (long[] room : free) {
+                any |= room[w];
+            }
+            while (any != 0) {
+                int slot = (w << 6) + Long.numberOfTrailingZeros(any);
+                any &= any - 1;
+
+                for (int r = 0; r < free.length; r++) {
+                    if ((free[r][w] & (1L << slot)) == 0) continue;
+
+                    sb.append("FREE | Day: ").append(calendar.dayLabel(schedule.dayOf(slot)))
+                            .append(" | Time: ").append(calendar.timeLabel(schedule.slotOfDay(slot)))
+                            .append(" | Room: ").append(rooms.get(r));
+                    if (!all) return sb.toString();
+
+                    sb.append(";");
+                    if (++found == FIND_LIMIT) {
+                        return sb.append("MORE | Only the first ").append(FIND_LIMIT).append(" are listed;").toString();
                     }
                 }
             }
         }
+        return found == 0 ? "No free slot found." : sb.toString();
+    }
+
+    // {first, last} day of "<day>" or "<day>-<day>", every day when empty, or null
+    static int[] dayRange(String days) {
+        TermCalendar calendar = schedule.calendar;
+        int dash = days.indexOf('-');
+        int fromDay = days.isEmpty() ? 0 : calendar.dayIndex(days, 0, dash < 0 ? days.length() : dash);
+        int toDay = days.isEmpty() ? calendar.days - 1 : dash < 0 ? fromDay : calendar.dayIndex(days, dash + 1, days.length());
+        return fromDay < 0 || toDay < fromDay ? null : new int[] {fromDay, toDay};
+    }
+
+    // Distinct non-blank names of a list split by 'separator'
+    static List<String> roomList(String list, String separator) {
+        List<String> rooms = new ArrayList<>();
+        for (String room : list.split(separator)) {
+            if (!room.trim().isEmpty() && !rooms.contains(room.trim())) rooms.add(room.trim());
+        }
+        return rooms;
+    }
+
+    private static String moduleSchedule(String module) {
+        List<Lecture> lectures = schedule.lecturesForModule(module);
+        return lectures.isEmpty() ? "No lectures scheduled for module " + module + "." : joinLectures(lectures);
+    }
+
+    private static String roomSchedule(String room) {
+        List<Lecture> lectures = schedule.lecturesForRoom(room);
+        return lectures.isEmpty() ? "No bookings for room " + room + "." : joinLectures(lectures);
+    }
+
+    private static String joinLectures(List<Lecture> lectures) {
+        StringBuilder sb = new StringBuilder();
+        for (Lecture lecture : lectures) {
+            sb.append(lecture).append(";");
+        }
         return sb.toString();
     }
 
@@ -160,21 +457,23 @@ public class TCPEchoServer {
             return e.getMessage();
         }
     }
-
-    private static boolean isValidTime(String time) {
-        return time.matches("([01]?[0-9]|2[0-3]):00");
-    }
 }
 
 
 
 
-//Lecture class - stores lecture details
+//Lecture class - stores lecture details (immutable, moving a lecture replaces it)
 
 class Lecture {
-    String day, time, room, module;
-
-    public Lecture(String day, String time, String room, String module) {
+    final String day, time, room, module;
+    final int slot;    // first Timetable slot
+    final int length;  // slots taken
+    final int minutes;
+
+    public Lecture(int slot, int length, int minutes, String day, String time, String room, String module) {
+        this.slot = slot;
+        this.length = length;
+        this.minutes = minutes;
         this.day = day;
         this.time = time;
         this.room = room;
@@ -183,7 +482,8 @@ class Lecture {
 
     @Override
     public String toString() {
-        return "Module: " + module + " | Day: " + day + " | Time: " + time + " | Room: " + room;
+        String text = "Module: " + module + " | Day: " + day + " | Time: " + time + " | Room: " + room;
+        return minutes == TermCalendar.LECTURE_MINUTES ? text : text + " | Minutes: " + minutes;
     }
 }
 
@@ -0,0 +1,161 @@
+package com.mycompany.tcpechoserver;
+
+// Shape of the teaching calendar: how many weeks, the teaching hours of a day
+// and the slot size every booking is aligned to.
+//
+// The default is the original single week, Monday to Friday, 09:00-18:00 in
+// hour slots. With more than one week the days are labelled "Monday W2" and so
+// on, and a bare "Monday" means week 1. Labels are built once, so requests are
+// matched and responses written without formatting any times.
+final class TermCalendar {
+    static final String[] WEEKDAYS = {"Monday", "Tuesday", "Wednesday", "Thursday", "Friday"};
+    static final int LECTURE_MINUTES = 60; // length of a lecture booked without one
+    static final int MAX_DAYS = Short.MAX_VALUE; // days and slots are stored as shorts on disk
+
+    static final TermCalendar DEFAULT = new TermCalendar(1, 9 * 60, 18 * 60, 60);
+
+    final int weeks;
+    final int firstMinute; // start of the teaching day, in minutes after midnight
+    final int lastMinute;  // end of the teaching day
+    final int slotMinutes;
+    final int days;
+    final int slotsPerDay;
+    final int defaultSlots; // slots taken by a lecture booked without a length
+
+    private final String[] dayLabels;
+    private final String[] timeLabels; // slotsPerDay + 1 entries, the last is the end of the day
+
+    TermCalendar(int weeks, int firstMinute, int lastMinute, int slotMinutes) {
+        if (weeks < 1 || weeks * WEEKDAYS.length > MAX_DAYS) {
+            throw new IllegalArgumentException("Invalid number of weeks: " + weeks);
+        }
+        if (firstMinute < 0 || lastMinute > 24 * 60 || firstMinute >= lastMinute) {
+            throw new IllegalArgumentException("Invalid teaching day: " + time(firstMinute) + "-" + time(lastMinute));
+        }
+        if (slotMinutes < 1 || (lastMinute - firstMinute) % slotMinutes != 0) {
+            throw new IllegalArgumentException("The teaching day must be a whole number of " + slotMinutes + "-minute slots");
+        }
+
+        this.weeks = weeks;
+        this.firstMinute = firstMinute;
+        this.lastMinute = lastMinute;
+        this.slotMinutes = slotMinutes;
+        this.days = weeks * WEEKDAYS.length;
+        this.slotsPerDay = (lastMinute - firstMinute) / slotMinutes;
+        this.defaultSlots = Math.min(slotsPerDay, (LECTURE_MINUTES + slotMinutes - 1) / slotMinutes);
+
+        dayLabels = new String[days];
+        for (int d = 0; d < days; d++) {
+            String weekday = WEEKDAYS[d % WEEKDAYS.length];
+            dayLabels[d] = weeks == 1 ? weekday : weekday + " W" + (d / WEEKDAYS.length + 1);
+        }
+        timeLabels = new String[slotsPerDay + 1];
+        for (int s = 0; s <= slotsPerDay; s++) {
+            timeLabels[s] = time(firstMinute + s * slotMinutes);
+        }
+    }
+
+    String dayLabel(int day) {
+        return dayLabels[day];
+    }
+
+    // Start of a slot of the day; slotsPerDay gives the end of the day
+    String timeLabel(int slotOfDay) {
+        return timeLabels[slotOfDay];
+    }
+
+    // Latest time a lecture can start
+    String lastStart() {
+        return timeLabels[slotsPerDay - 1];
+    }
+
+    String endOfDay() {
+        return timeLabels[slotsPerDay];
+    }
+
+    // A lecture of 'length' slots starting in the given slot of the day
+    Lecture lecture(int day, int slotOfDay, int length, String room, String module) {
+        return new Lecture(day * slotsPerDay + slotOfDay, length, length * slotMinutes,
+                dayLabels[day], timeLabels[slotOfDay], room, module);
+    }
+
+    // Index of "Monday" or "Monday W3" in s[start, end), or -1
+    int dayIndex(CharSequence s, int start, int end) {
+        for (int w = 0; w < WEEKDAYS.length; w++) {
+            String weekday = WEEKDAYS[w];
+            int nameEnd = start + weekday.length();
+            if (nameEnd > end || !regionEquals(weekday, s, start, nameEnd)) continue;
+
+            if (nameEnd == end) return w;
+            if (end - nameEnd < 3 || s.charAt(nameEnd) != ' ' || s.charAt(nameEnd + 1) != 'W') return -1;
+            int week = parseNumber(s, nameEnd + 2, end);
+            return week >= 1 && week <= weeks ? (week - 1) * WEEKDAYS.length + w : -1;
+        }
+        return -1;
+    }
+
+    // Minutes after midnight of a 24h "H:MM" or "HH:MM" time, or -1
+    static int parseMinute(CharSequence s, int start, int end) {
+        int len = end - start;
+        if (len < 4 || len > 5 || s.charAt(end - 3) != ':') return -1;
+
+        int hour = parseNumber(s, start, end - 3);
+        int minute = parseNumber(s, end - 2, end);
+        return hour >= 0 && hour <= 23 && minute >= 0 && minute <= 59 ? hour * 60 + minute : -1;
+    }
+
+    // True when a lecture could start at the minute if it were within teaching hours
+    boolean isAligned(int minute) {
+        return minute >= 0 && (minute - firstMinute) % slotMinutes == 0;
+    }
+
+    // Slot of the day starting at the minute, or -1 outside teaching hours or between slots
+    int slotIndex(int minute) {
+        if (!isAligned(minute) || minute < firstMinute || minute >= lastMinute) return -1;
+        return (minute - firstMinute) / slotMinutes;
+    }
+
+    // Slots taken by a lecture of 'minutes', or -1 unless it is a positive multiple of the slot size
+    int slotsFor(int minutes) {
+        return minutes > 0 && minutes % slotMinutes == 0 ? minutes / slotMinutes : -1;
+    }
+
+    // Why a start time was rejected by isAligned
+    String alignmentHint() {
+        if (slotMinutes == 60 && firstMinute % 60 == 0) {
+            return "Lectures must be on the hour (e.g., 14:00) in 24-hour format.";
+        }
+        return "Lectures must start on a " + slotMinutes + "-minute slot (e.g., " + timeLabels[Math.min(1, slotsPerDay - 1)]
+                + ") in 24-hour format.";
+    }
+
+    @Override
+    public String toString() {
+        return weeks + (weeks == 1 ? " week" : " weeks") + " of " + WEEKDAYS[0] + "-" + WEEKDAYS[WEEKDAYS.length - 1] + ", "
+                + timeLabels[0] + "-" + endOfDay() + " in " + slotMinutes + "-minute slots";
+    }
+
+    private static String time(int minute) {
+        return String.format("%02d:%02d", minute / 60, minute % 60);
+    }
+
+    // Non-negative decimal in s[start, end), or -1
+    static int parseNumber(CharSequence s, int start, int end) {
+        if (start >= end || end - start > 9) return -1;
+        int n = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            n = n * 10 + (c - '0');
+        }
+        return n;
+    }
+
+    private static boolean regionEquals(String expected, CharSequence s, int start, int end) {
+        if (expected.length() != end - start) return false;
+        for (int i = 0; i < expected.length(); i++) {
+            if (expected.charAt(i) != s.charAt(start + i)) return false;
+        }
+        return true;
+    }
+}
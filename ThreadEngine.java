@@ -0,0 +1,82 @@
+package com.mycompany.tcpechoserver;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Blocking engine - every connection gets its own ClientHandler thread
+class ThreadEngine implements ConnectionEngine {
+    private final ServerObserver observer;
+    private final ExecutorService executor;
+    private volatile ServerSocket serverSocket;
+
+    ThreadEngine(boolean virtual, ServerObserver observer) {
+        this.observer = observer;
+        this.executor = virtual ? virtualThreadExecutor(observer) : null;
+    }
+
+    @Override
+    public void serve(int port) throws IOException {
+        serverSocket = new ServerSocket(port);
+        observer.log("Server started. Waiting for clients...");
+
+        try {
+            while (!serverSocket.isClosed()) {
+                Socket clientSocket = serverSocket.accept();
+                if (!AdmissionControl.admitConnection()) {
+                    refuse(clientSocket);
+                    continue;
+                }
+                ClientHandler handler = new ClientHandler(clientSocket, observer);
+                Runnable task = () -> {
+                    try {
+                        handler.run();
+                    } finally {
+                        AdmissionControl.connectionClosed();
+                    }
+                };
+
+                if (executor != null) {
+                    executor.execute(task);
+                } else {
+                    new Thread(task).start();
+                }
+            }
+        } catch (IOException e) {
+            if (!serverSocket.isClosed()) throw e;
+        }
+    }
+
+    @Override
+    public void stop() {
+        try {
+            if (serverSocket != null) serverSocket.close();
+        } catch (IOException e) {
+            observer.log("Error closing server socket.");
+        }
+        if (executor != null) executor.shutdown();
+    }
+
+    // Tells a connection over the limit why it is being closed; short enough to fit the socket buffer
+    private void refuse(Socket socket) {
+        try (Socket s = socket) {
+            s.getOutputStream().write((AdmissionControl.connectionRefused() + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            observer.log("Error refusing a connection: " + e.getMessage());
+        }
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor is looked up reflectively so the
+    // server still compiles and runs on Java 17
+    private static ExecutorService virtualThreadExecutor(ServerObserver observer) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            observer.log("Virtual threads not available on this JVM, using a cached thread pool.");
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
@@ -0,0 +1,711 @@
+package com.mycompany.tcpechoserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Slot-indexed timetable store.
+// A slot is day * slotsPerDay + slot of the day (see TermCalendar), so every
+// lookup is a plain array access instead of building and hashing a "day time" key
+// string. Any number of rooms can be in use at once: a lecture takes 'length'
+// consecutive slots of one day and is identified by its room and first slot.
+//
+// Every room and module has an occupancy bitmap, so checking a lecture of any
+// length for a clash tests a few 64-slot words no matter how many rooms, modules
+// and bookings the timetable holds.
+//
+// Locking:
+//  - every write to a day's slots holds that day's lock, so different days never contend
+//  - module counts (the module limit) are guarded by moduleLock, which is
+//    always taken after a day lock, never before one
+//  - reads (startingAt, lecturesForModule/Room) take no lock; each slot's lectures
+//    are published as an immutable array through an AtomicReferenceArray
+//  - every write also publishes a new ScheduleSnapshot and appends to the
+//    write-ahead log before releasing the day lock, so snapshot() is always a
+//    consistent, versioned view and each day's log records are in apply order
+class Timetable {
+    private static final Lecture[] NONE = new Lecture[0];
+
+    final TermCalendar calendar;
+    final int days;
+    final int slotsPerDay;
+
+    // Lectures starting in each slot, sorted by room; an array is replaced, never modified
+    private final AtomicReferenceArray<Lecture[]> starting;
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final ReentrantLock[] dayLocks;
+    private final AtomicReference<ScheduleSnapshot> snapshot;
+    private volatile WriteAheadLog log = WriteAheadLog.DISABLED;
+    final ChangeFeed feed = new ChangeFeed();
+    final Object moduleLock = new Object();
+    private int activeModules; // guarded by moduleLock
+
+    // Interned ids - a room or module name is hashed once when first seen
+    private final ConcurrentHashMap<String, Key> rooms = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Key> modules = new ConcurrentHashMap<>();
+    private final AtomicInteger keyIds = new AtomicInteger();
+
+    // An interned room or module with bitmaps of the slots it is busy in and
+    // the slots its lectures start in. A day's bits only change under that day's
+    // lock; words shared by two days are updated with CAS so the days don't race.
+    private static final class Key {
+        final String name;
+        final int id;
+        final AtomicLongArray busy;
+        final AtomicLongArray starts;
+        int lectures; // modules only, guarded by moduleLock
+
+        Key(String name, int id, int capacity) {
+            this.name = name;
+            this.id = id;
+            this.busy = new AtomicLongArray((capacity + 63) / 64);
+            this.starts = new AtomicLongArray((capacity + 63) / 64);
+        }
+
+        void book(int from, int to) {
+            set(busy, from, to);
+            set(starts, from, from + 1);
+        }
+
+        void free(int from, int to) {
+            clear(busy, from, to);
+            clear(starts, from, from + 1);
+        }
+
+        // Caller holds the lock of the day holding [from, to)
+        boolean isFree(int from, int to) {
+            for (int w = from >>> 6; w <= (to - 1) >>> 6; w++) {
+                if ((busy.get(w) & mask(w, from, to)) != 0) return false;
+            }
+            return true;
+        }
+    }
+
+    Timetable(TermCalendar calendar) {
+        this.calendar = calendar;
+        this.days = calendar.days;
+        this.slotsPerDay = calendar.slotsPerDay;
+        this.starting = new AtomicReferenceArray<>(days * slotsPerDay);
+        this.dayLocks = new ReentrantLock[days];
+        ScheduleSnapshot.DaySnapshot[] empty = new ScheduleSnapshot.DaySnapshot[days];
+        for (int d = 0; d < days; d++) {
+            dayLocks[d] = new ReentrantLock();
+            Lecture[][] slots = new Lecture[slotsPerDay][];
+            for (int s = 0; s < slotsPerDay; s++) {
+                starting.set(slot(d, s), NONE);
+                slots[s] = NONE;
+            }
+            empty[d] = new ScheduleSnapshot.DaySnapshot(calendar, d, slots);
+        }
+        this.snapshot = new AtomicReference<>(new ScheduleSnapshot(0, 0, empty));
+    }
+
+    int slot(int day, int slotOfDay) {
+        return day * slotsPerDay + slotOfDay;
+    }
+
+    int dayOf(int slot) {
+        return slot / slotsPerDay;
+    }
+
+    int slotOfDay(int slot) {
+        return slot % slotsPerDay;
+    }
+
+    int capacity() {
+        return starting.length();
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    // Set once the log has been replayed, so replayed records are not logged again
+    void setLog(WriteAheadLog log) {
+        this.log = log;
+    }
+
+    WriteAheadLog log() {
+        return log;
+    }
+
+    // Takes the lock that guards every slot of the day and returns it; time spent waiting for a contended lock
+    // is recorded in ServerMetrics
+    ReentrantLock lockDay(int day) {
+        ReentrantLock lock = dayLocks[day];
+        if (lock.tryLock()) {
+            ServerMetrics.dayLockAcquired(0);
+        } else {
+            long start = System.nanoTime();
+            lock.lock();
+            ServerMetrics.dayLockAcquired(Math.max(1, System.nanoTime() - start));
+        }
+        return lock;
+    }
+
+    // Takes the locks of several days in ascending order. Writers that need more than
+    // one day all lock this way and the others only ever hold one, so none of them can
+    // deadlock. Release with unlockDays.
+    List<ReentrantLock> lockDays(SortedSet<Integer> days) {
+        List<ReentrantLock> locks = new ArrayList<>(days.size());
+        for (int day : days) {
+            locks.add(lockDay(day));
+        }
+        return locks;
+    }
+
+    static void unlockDays(List<ReentrantLock> locks) {
+        for (ReentrantLock lock : locks) {
+            lock.unlock();
+        }
+    }
+
+    // Latest published snapshot, read without locking
+    ScheduleSnapshot snapshot() {
+        return snapshot.get();
+    }
+
+    long version() {
+        return snapshot.get().version;
+    }
+
+    // Lectures starting in the slot, sorted by room; the array is shared, do not modify it
+    Lecture[] startingAt(int slot) {
+        return starting.get(slot);
+    }
+
+    // The room's lecture starting in the slot, or null
+    Lecture get(int slot, String room) {
+        Lecture[] lectures = starting.get(slot);
+        int i = indexOf(lectures, room);
+        return i >= 0 ? lectures[i] : null;
+    }
+
+    // Caller holds the day lock
+    boolean isRoomFree(String room, int slot, int length) {
+        Key key = rooms.get(room);
+        return key == null || key.isFree(slot, slot + length);
+    }
+
+    // Caller holds the day lock
+    boolean isModuleFree(String module, int slot, int length) {
+        Key key = modules.get(module);
+        return key == null || key.isFree(slot, slot + length);
+    }
+
+    // Caller holds the day lock and has checked the room and module are free;
+    // takes moduleLock to update the module count
+    void put(Lecture lecture) {
+        Key room = index(lecture);
+        int slot = lecture.slot;
+        long version = publish(dayOf(slot));
+        log.appendAdd(version, dayOf(slot), slotOfDay(slot), lecture);
+        feed.changed("ADDED", version, feedKey(slot, room), lecture);
+    }
+
+    // Adds the lectures as one write: a single snapshot version covers them all, so
+    // DISPLAY SCHEDULE shows either none or every one of them, and they share one log
+    // record, so a crash cannot leave half of them on disk. Caller holds the locks of
+    // every day they fall on and has checked that their rooms and modules are free,
+    // also of each other; takes moduleLock to update the module counts.
+    long putAll(List<Lecture> lectures) {
+        if (lectures.isEmpty()) return version();
+
+        TreeSet<Integer> touched = new TreeSet<>();
+        Key[] roomKeys = indexAll(lectures, touched);
+        long version = publish(touched);
+        log.appendAddAll(version, this, lectures);
+        for (int i = 0; i < roomKeys.length; i++) {
+            feed.changed("ADDED", version, feedKey(lectures.get(i).slot, roomKeys[i]), lectures.get(i));
+        }
+        return version;
+    }
+
+    // Removes 'removed', which are in the schedule, and adds 'added' as one write, like
+    // putAll: one snapshot version, one log record. Caller holds the locks of every day
+    // either list falls on and has checked that 'added' fit once 'removed' are gone;
+    // takes moduleLock to update the module counts. Returns the version that holds them.
+    long replace(List<Lecture> removed, List<Lecture> added) {
+        if (removed.isEmpty() && added.isEmpty()) return version();
+
+        TreeSet<Integer> touched = new TreeSet<>();
+        Key[] removedRooms = new Key[removed.size()];
+        for (int i = 0; i < removedRooms.length; i++) {
+            removedRooms[i] = unindex(removed.get(i));
+            touched.add(dayOf(removed.get(i).slot));
+        }
+        Key[] addedRooms = indexAll(added, touched);
+        long version = publish(touched);
+        log.appendReplace(version, this, removed, added);
+        for (int i = 0; i < removedRooms.length; i++) {
+            feed.changed("REMOVED", version, feedKey(removed.get(i).slot, removedRooms[i]), removed.get(i));
+        }
+        for (int i = 0; i < addedRooms.length; i++) {
+            feed.changed("ADDED", version, feedKey(added.get(i).slot, addedRooms[i]), added.get(i));
+        }
+        return version;
+    }
+
+    // index() for many lectures, adding their days to 'touched'; returns their rooms.
+    // Each slot's array is copied once, with all its new lectures, not once per lecture.
+    private Key[] indexAll(List<Lecture> lectures, Set<Integer> touched) {
+        Key[] roomKeys = new Key[lectures.size()];
+        Map<Integer, List<Lecture>> bySlot = new HashMap<>();
+        for (int i = 0; i < roomKeys.length; i++) {
+            Lecture lecture = lectures.get(i);
+            roomKeys[i] = indexKeys(lecture);
+            touched.add(dayOf(lecture.slot));
+            bySlot.computeIfAbsent(lecture.slot, s -> new ArrayList<>()).add(lecture);
+        }
+        for (Map.Entry<Integer, List<Lecture>> added : bySlot.entrySet()) {
+            starting.set(added.getKey(), with(starting.get(added.getKey()), added.getValue()));
+        }
+        return roomKeys;
+    }
+
+    // Books the lecture in the slot arrays, bitmaps and module counts without
+    // publishing it; returns its room
+    private Key index(Lecture lecture) {
+        Key room = indexKeys(lecture);
+        starting.set(lecture.slot, with(starting.get(lecture.slot), lecture));
+        return room;
+    }
+
+    // index() without the slot array. Every caller has checked the room is free, so
+    // a clash here is a bug; booking over it would leave two lectures in the room.
+    private Key indexKeys(Lecture lecture) {
+        int slot = lecture.slot;
+        Key room = intern(rooms, lecture.room);
+        if (!room.isFree(slot, slot + lecture.length)) {
+            throw new IllegalStateException("Room " + lecture.room + " is already booked at " + lecture.day + " " + lecture.time);
+        }
+        Key module = intern(modules, lecture.module);
+
+        synchronized (moduleLock) {
+            if (module.lectures++ == 0) activeModules++;
+        }
+
+        room.book(slot, slot + lecture.length);
+        module.book(slot, slot + lecture.length);
+        size.incrementAndGet();
+        return room;
+    }
+
+    // Caller holds the day lock; takes moduleLock to update the module count.
+    // Returns the removed lecture, or null if the room has none starting in the slot.
+    Lecture remove(int slot, String roomName) {
+        Lecture removed = get(slot, roomName);
+        if (removed != null) {
+            Key room = unindex(removed);
+            long version = publish(dayOf(slot));
+            log.appendRemove(version, dayOf(slot), slotOfDay(slot), removed.room);
+            feed.changed("REMOVED", version, feedKey(slot, room), removed);
+        }
+        return removed;
+    }
+
+    // Undoes index() for a lecture in the schedule, without publishing; returns its room
+    private Key unindex(Lecture removed) {
+        int slot = removed.slot;
+        Key room = rooms.get(removed.room);
+        Key module = modules.get(removed.module);
+        starting.set(slot, without(starting.get(slot), removed));
+        room.free(slot, slot + removed.length);
+        module.free(slot, slot + removed.length);
+
+        synchronized (moduleLock) {
+            if (--module.lectures == 0) activeModules--;
+        }
+
+        size.decrementAndGet();
+        return room;
+    }
+
+    // Moves each of the day's lectures, in start order, to the earliest slot of
+    // the day where its room and its module are both free, so no lecture moves
+    // later. The earliest fit is found in the occupancy bitmaps a word at a time.
+    // The new layout is applied in one pass under the day lock and published as
+    // a single snapshot. Returns the number of lectures moved.
+    int compactDay(int day) {
+        ReentrantLock lock = lockDay(day);
+        try {
+            int dayStart = slot(day, 0);
+            List<Lecture> before = new ArrayList<>();
+            List<Lecture> after = new ArrayList<>();
+            for (int from = dayStart; from < dayStart + slotsPerDay; from++) {
+                for (Lecture lecture : starting.get(from)) {
+                    Key room = rooms.get(lecture.room);
+                    Key module = modules.get(lecture.module);
+
+                    // Look for a fit with the lecture's own slots counted as free
+                    clear(room.busy, from, from + lecture.length);
+                    clear(module.busy, from, from + lecture.length);
+                    int to = firstFit(room, module, dayStart, from, lecture.length);
+                    if (to < 0) to = from; // only if replayed data overlapped
+                    set(room.busy, to, to + lecture.length);
+                    set(module.busy, to, to + lecture.length);
+
+                    if (to < from) {
+                        before.add(lecture);
+                        after.add(relocate(lecture, to, room, module));
+                    }
+                }
+            }
+
+            if (!before.isEmpty()) {
+                long version = publish(day);
+                log.appendCompact(version, day);
+
+                // Removals first, so a start freed and refilled in one room ends up SHIFTED
+                for (Lecture lecture : before) {
+                    feed.changed("REMOVED", version, feedKey(lecture.slot, rooms.get(lecture.room)), lecture);
+                }
+                for (Lecture lecture : after) {
+                    feed.changed("SHIFTED", version, feedKey(lecture.slot, rooms.get(lecture.room)), lecture);
+                }
+            }
+            return before.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The lecture is replaced by a copy carrying the new time so readers never see it half-moved.
+    // Its busy bits have already been moved by compactDay.
+    private Lecture relocate(Lecture old, int to, Key room, Key module) {
+        Lecture moved = calendar.lecture(dayOf(to), slotOfDay(to), old.length, old.room, old.module);
+        starting.set(to, with(starting.get(to), moved));
+        set(room.starts, to, to + 1);
+        set(module.starts, to, to + 1);
+
+        starting.set(old.slot, without(starting.get(old.slot), old));
+        clear(room.starts, old.slot, old.slot + 1);
+        clear(module.starts, old.slot, old.slot + 1);
+        return moved;
+    }
+
+    // Caller holds the day lock, so the copied day is consistent and days are
+    // published in write order. The CAS loop merges concurrent writes to other days.
+    // Returns the new version, which the write-ahead log records with the write.
+    private long publish(int day) {
+        ScheduleSnapshot.DaySnapshot daySnapshot = daySnapshot(day);
+        return snapshot.updateAndGet(current -> current.withDay(daySnapshot)).version;
+    }
+
+    // Several days in one new version; caller holds all of their locks
+    private long publish(Collection<Integer> days) {
+        ScheduleSnapshot.DaySnapshot[] daySnapshots = new ScheduleSnapshot.DaySnapshot[days.size()];
+        int i = 0;
+        for (int day : days) {
+            daySnapshots[i++] = daySnapshot(day);
+        }
+        return snapshot.updateAndGet(current -> current.withDays(daySnapshots)).version;
+    }
+
+    private ScheduleSnapshot.DaySnapshot daySnapshot(int day) {
+        Lecture[][] copy = new Lecture[slotsPerDay][];
+        for (int s = 0; s < slotsPerDay; s++) {
+            copy[s] = starting.get(slot(day, s));
+        }
+        return new ScheduleSnapshot.DaySnapshot(calendar, day, copy);
+    }
+
+    // Moves the version forward to at least 'version' after a checkpoint or log replay,
+    // so versions of new writes never collide with versions already on disk
+    void restoreVersion(long version) {
+        snapshot.updateAndGet(current -> current.version >= version ? current : current.withVersion(version));
+    }
+
+    // Sets the version outright, back or forward: a follower that loads the leader's
+    // snapshot takes on the leader's version. Caller holds every day lock.
+    void resetVersion(long version) {
+        snapshot.updateAndGet(current -> current.withVersion(version));
+    }
+
+    // True while at least one lecture of the module is scheduled
+    boolean hasModule(String module) {
+        Key key = modules.get(module);
+        synchronized (moduleLock) {
+            return key != null && key.lectures > 0;
+        }
+    }
+
+    // Lectures the module has scheduled
+    int lectureCount(String module) {
+        Key key = modules.get(module);
+        synchronized (moduleLock) {
+            return key == null ? 0 : key.lectures;
+        }
+    }
+
+    // Number of modules with at least one lecture
+    int moduleCount() {
+        synchronized (moduleLock) {
+            return activeModules;
+        }
+    }
+
+    // All lectures of a module in slot order
+    List<Lecture> lecturesForModule(String module) {
+        return collect(modules.get(module), false);
+    }
+
+    // All bookings of a room in slot order
+    List<Lecture> lecturesForRoom(String room) {
+        return collect(rooms.get(room), true);
+    }
+
+    // Rooms booked at some point, sorted by name
+    List<String> knownRooms() {
+        List<String> names = new ArrayList<>(rooms.keySet());
+        names.sort(null);
+        return names;
+    }
+
+    // Bitmap of the slots a lecture of 'length' slots may start in: slots of the days
+    // [fromDay, toDay] from 'fromSlotOfDay' on, where it still ends within its day
+    long[] startMask(int fromDay, int toDay, int fromSlotOfDay, int length) {
+        long[] mask = new long[(capacity() + 63) / 64];
+        for (int day = fromDay; day <= toDay; day++) {
+            int from = slot(day, fromSlotOfDay);
+            int to = slot(day, slotsPerDay - length + 1);
+            for (int w = from >>> 6; from < to && w <= (to - 1) >>> 6; w++) {
+                mask[w] |= mask(w, from, to);
+            }
+        }
+        return mask;
+    }
+
+    // The starts in 'allowed' where the room, and the module when one is given, are free for
+    // 'length' slots. Built from their busy bitmaps with whole-word ORs, shifts and ANDs, so
+    // the cost depends on the size of the calendar, not the number of bookings. Reads take no
+    // lock: a concurrent write can make the answer stale, and ADD LECTURE checks again.
+    long[] freeStarts(String room, String module, long[] allowed, int length) {
+        Key roomKey = rooms.get(room);
+        Key moduleKey = module.isEmpty() ? null : modules.get(module);
+
+        long[] free = new long[allowed.length];
+        for (int w = 0; w < free.length; w++) {
+            long busy = (roomKey != null ? roomKey.busy.get(w) : 0) | (moduleKey != null ? moduleKey.busy.get(w) : 0);
+            free[w] = ~busy;
+        }
+        free = runStarts(free, length);
+
+        for (int w = 0; w < free.length; w++) {
+            free[w] &= allowed[w];
+        }
+        return free;
+    }
+
+    // Copies of a room's or a module's busy bitmap, all clear when it is unknown.
+    // Read without a lock, like freeStarts.
+    long[] roomBusy(String room) {
+        return copy(rooms.get(room));
+    }
+
+    long[] moduleBusy(String module) {
+        return copy(modules.get(module));
+    }
+
+    private long[] copy(Key key) {
+        long[] bits = new long[(capacity() + 63) / 64];
+        for (int w = 0; key != null && w < bits.length; w++) {
+            bits[w] = key.busy.get(w);
+        }
+        return bits;
+    }
+
+    // Bit s of the result is set when bits s to s + length - 1 of 'free' all are.
+    // Doubling: after each step bit s says slots [s, s + run) are all free.
+    static long[] runStarts(long[] free, int length) {
+        int run = 1;
+        while (run < length) {
+            int step = Math.min(run, length - run);
+            long[] ahead = shiftDown(free, step);
+            for (int w = 0; w < free.length; w++) {
+                ahead[w] &= free[w];
+            }
+            free = ahead;
+            run += step;
+        }
+        return free;
+    }
+
+    // Bit s of the result is bit s + k of 'bits'; bits past the end read as 0
+    private static long[] shiftDown(long[] bits, int k) {
+        long[] out = new long[bits.length];
+        int words = k >>> 6;
+        int shift = k & 63;
+        for (int w = 0; w + words < bits.length; w++) {
+            long low = bits[w + words] >>> shift;
+            long high = shift == 0 || w + words + 1 >= bits.length ? 0 : bits[w + words + 1] << (64 - shift);
+            out[w] = low | high;
+        }
+        return out;
+    }
+
+    // ChangeFeed coalesces events per room and start slot under this key
+    long feedKey(Lecture lecture) {
+        return feedKey(lecture.slot, intern(rooms, lecture.room));
+    }
+
+    private static long feedKey(int slot, Key room) {
+        return (long) slot << 32 | room.id;
+    }
+
+    private List<Lecture> collect(Key key, boolean byRoom) {
+        List<Lecture> result = new ArrayList<>();
+        if (key == null) return result;
+
+        for (int w = 0; w < key.starts.length(); w++) {
+            long word = key.starts.get(w);
+            while (word != 0) {
+                int slot = (w << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+
+                // A concurrent writer may have emptied the slot since the bit was read
+                for (Lecture lecture : starting.get(slot)) {
+                    if ((byRoom ? lecture.room : lecture.module).equals(key.name)) result.add(lecture);
+                }
+            }
+        }
+        return result;
+    }
+
+    private Key intern(ConcurrentHashMap<String, Key> keys, String name) {
+        Key key = keys.get(name);
+        return key != null ? key : keys.computeIfAbsent(name, n -> new Key(n, keyIds.getAndIncrement(), starting.length()));
+    }
+
+    // Earliest start in [from, latest] where neither key is busy for 'length' slots, or -1.
+    // Each step jumps past the first busy slot in the window to the next free one.
+    private static int firstFit(Key a, Key b, int from, int latest, int length) {
+        int start = from;
+        while (start <= latest) {
+            int busy = nextBusy(a, b, start, start + length);
+            if (busy < 0) return start;
+            start = nextFree(a, b, busy + 1, latest + length);
+        }
+        return -1;
+    }
+
+    // First slot in [from, to) where either key is busy, or -1
+    private static int nextBusy(Key a, Key b, int from, int to) {
+        for (int w = from >>> 6; w <= (to - 1) >>> 6; w++) {
+            long word = (a.busy.get(w) | b.busy.get(w)) & mask(w, from, to);
+            if (word != 0) return (w << 6) + Long.numberOfTrailingZeros(word);
+        }
+        return -1;
+    }
+
+    // First slot in [from, to) where both keys are free, or 'to'
+    private static int nextFree(Key a, Key b, int from, int to) {
+        for (int w = from >>> 6; from < to && w <= (to - 1) >>> 6; w++) {
+            long word = ~(a.busy.get(w) | b.busy.get(w)) & mask(w, from, to);
+            if (word != 0) return (w << 6) + Long.numberOfTrailingZeros(word);
+        }
+        return to;
+    }
+
+    // Bits of word w that fall in [from, to)
+    static long mask(int w, int from, int to) {
+        int lo = Math.max(from - (w << 6), 0);
+        int hi = Math.min(to - (w << 6), 64);
+        long upTo = hi == 64 ? -1L : (1L << hi) - 1;
+        return upTo & (-1L << lo);
+    }
+
+    private static void set(AtomicLongArray bits, int from, int to) {
+        for (int w = from >>> 6; w <= (to - 1) >>> 6; w++) {
+            long m = mask(w, from, to);
+            bits.getAndUpdate(w, x -> x | m);
+        }
+    }
+
+    private static void clear(AtomicLongArray bits, int from, int to) {
+        for (int w = from >>> 6; w <= (to - 1) >>> 6; w++) {
+            long m = mask(w, from, to);
+            bits.getAndUpdate(w, x -> x & ~m);
+        }
+    }
+
+    // The same on plain copies of a bitmap, e.g. from roomBusy()
+    static boolean isClear(long[] bits, int from, int to) {
+        for (int w = from >>> 6; w <= (to - 1) >>> 6; w++) {
+            if ((bits[w] & mask(w, from, to)) != 0) return false;
+        }
+        return true;
+    }
+
+    static void set(long[] bits, int from, int to) {
+        for (int w = from >>> 6; w <= (to - 1) >>> 6; w++) {
+            bits[w] |= mask(w, from, to);
+        }
+    }
+
+    static void clear(long[] bits, int from, int to) {
+        for (int w = from >>> 6; w <= (to - 1) >>> 6; w++) {
+            bits[w] &= ~mask(w, from, to);
+        }
+    }
+
+    // Position of the room's lecture in an array sorted by room, or -1
+    private static int indexOf(Lecture[] lectures, String room) {
+        int lo = 0;
+        int hi = lectures.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = lectures[mid].room.compareTo(room);
+            if (cmp < 0) lo = mid + 1;
+            else if (cmp > 0) hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    private static Lecture[] with(Lecture[] lectures, Lecture lecture) {
+        int i = 0;
+        while (i < lectures.length && lectures[i].room.compareTo(lecture.room) < 0) i++;
+        Lecture[] copy = new Lecture[lectures.length + 1];
+        System.arraycopy(lectures, 0, copy, 0, i);
+        copy[i] = lecture;
+        System.arraycopy(lectures, i, copy, i + 1, lectures.length - i);
+        return copy;
+    }
+
+    private static Lecture[] with(Lecture[] lectures, List<Lecture> added) {
+        Lecture[] copy = Arrays.copyOf(lectures, lectures.length + added.size());
+        for (int i = 0; i < added.size(); i++) {
+            copy[lectures.length + i] = added.get(i);
+        }
+        Arrays.sort(copy, (a, b) -> a.room.compareTo(b.room));
+        return copy;
+    }
+
+    private static Lecture[] without(Lecture[] lectures, Lecture lecture) {
+        if (lectures.length == 1) return NONE;
+        Lecture[] copy = new Lecture[lectures.length - 1];
+        int n = 0;
+        for (Lecture l : lectures) {
+            if (l != lecture) copy[n++] = l;
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,358 @@
+package com.mycompany.tcpechoserver;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Bulk IMPORT and EXPORT of timetables, as CSV rows or in the checkpoint's binary layout.
+//
+//   IMPORT|<lines>|||                the next <lines> lines on the connection are CSV rows
+//   EXPORT||||                       "EXPORT | Version: V | Rows: N", then N CSV rows
+//   IMPORT FILE|<name>|CSV or BINARY||
+//   EXPORT FILE|<name>|CSV or BINARY||
+//
+// A CSV row is day,time,room,module[,minutes], e.g. "Monday,09:00,CSG001,CS4076,120";
+// fields holding a comma or a quote are quoted. A "day,time,..." header row is skipped.
+// Files are read and written in the server's --data-dir only.
+//
+// An import is all or nothing. Every row is parsed and checked against the rows
+// before it as it arrives; then the days it touches are locked once, the rows are
+// checked against the live schedule and added with Timetable.putAll - one snapshot
+// version, one log record and one batch of feed events however many rows there are.
+// An export reads one ScheduleSnapshot and is written a day at a time, never built
+// as a whole string.
+class TimetableTransfer {
+    static final String CSV_HEADER = "day,time,room,module,minutes";
+    static final int MAX_IMPORT_LINES = 1_000_000;
+
+    // Rows of an import being received, checked as they arrive and applied by apply()
+    static final class Import implements ClientSession.Block {
+        private final Timetable schedule;
+        private final String unit; // "Line" for CSV, "Lecture" for binary files, used in errors
+        private final List<Lecture> lectures = new ArrayList<>();
+        private int[] positions = new int[64]; // line or lecture number of each of 'lectures'
+        private final Map<String, long[]> roomBusy = new HashMap<>();
+        private final Map<String, long[]> moduleBusy = new HashMap<>();
+        private int position;
+        private String error; // the first problem found; later rows are still read, not kept
+
+        Import(Timetable schedule, String unit) {
+            this.schedule = schedule;
+            this.unit = unit;
+        }
+
+        // Parses one CSV line; blank lines and a header row are skipped
+        @Override
+        public void add(String line) {
+            position++;
+            if (error != null || line.trim().isEmpty()) return;
+
+            List<String> fields = splitCsv(line);
+            if (fields == null || fields.size() < 4 || fields.size() > 5) {
+                fail("Expected " + CSV_HEADER + " but got: " + line);
+                return;
+            }
+            if (position == 1 && fields.get(0).equalsIgnoreCase("day")) return;
+
+            TermCalendar calendar = schedule.calendar;
+            String day = fields.get(0);
+            String time = fields.get(1);
+            String minutes = fields.size() == 5 ? fields.get(4) : "";
+            int dayIndex = calendar.dayIndex(day, 0, day.length());
+            int minute = TermCalendar.parseMinute(time, 0, time.length());
+            if (!calendar.isAligned(minute)) {
+                fail(calendar.alignmentHint());
+                return;
+            }
+            if (dayIndex < 0) {
+                fail("Invalid day: " + day);
+                return;
+            }
+            int slotOfDay = calendar.slotIndex(minute);
+            if (slotOfDay < 0) {
+                fail("Lectures must be between " + calendar.timeLabel(0) + " and " + calendar.lastStart() + ".");
+                return;
+            }
+            int length = minutes.isEmpty() ? calendar.defaultSlots : calendar.slotsFor(TermCalendar.parseNumber(minutes, 0, minutes.length()));
+            if (length < 0) {
+                fail("Invalid length: " + minutes + " (minutes, a multiple of " + calendar.slotMinutes + ").");
+                return;
+            }
+            if (slotOfDay + length > calendar.slotsPerDay) {
+                fail("Lectures must end by " + calendar.endOfDay() + ".");
+                return;
+            }
+            if (fields.get(2).isEmpty() || fields.get(3).isEmpty()) {
+                fail("The room and the module must not be empty.");
+                return;
+            }
+            keep(calendar.lecture(dayIndex, slotOfDay, length, fields.get(2), fields.get(3)));
+        }
+
+        // Takes one lecture read from a binary file
+        void addLecture(Lecture lecture) {
+            position++;
+            if (error == null) keep(lecture);
+        }
+
+        private void keep(Lecture lecture) {
+            long[] room = roomBusy.computeIfAbsent(lecture.room, name -> new long[(schedule.capacity() + 63) / 64]);
+            long[] module = moduleBusy.computeIfAbsent(lecture.module, name -> new long[(schedule.capacity() + 63) / 64]);
+            int from = lecture.slot;
+            int to = from + lecture.length;
+            if (!Timetable.isClear(room, from, to)) {
+                fail("Room " + lecture.room + " is booked twice at " + lecture.time + " on " + lecture.day + ".");
+                return;
+            }
+            if (!Timetable.isClear(module, from, to)) {
+                fail("Module " + lecture.module + " has two lectures at " + lecture.time + " on " + lecture.day + ".");
+                return;
+            }
+            Timetable.set(room, from, to);
+            Timetable.set(module, from, to);
+
+            if (lectures.size() == positions.length) positions = Arrays.copyOf(positions, positions.length * 2);
+            positions[lectures.size()] = position;
+            lectures.add(lecture);
+        }
+
+        private void fail(String message) {
+            error = unit + " " + position + ": " + message;
+        }
+
+        // The first problem found in the rows, or null
+        String error() {
+            return error;
+        }
+
+        // The rows read so far, checked against each other but not the schedule
+        List<Lecture> lectures() {
+            return lectures;
+        }
+
+        // Applies every row or none: returns the IMPORT response
+        @Override
+        public String apply() {
+            if (error != null) {
+                return "ERROR: Nothing imported. " + error;
+            }
+            if (lectures.isEmpty()) {
+                return "ERROR: Nothing to import.";
+            }
+
+            TreeSet<Integer> days = new TreeSet<>();
+            for (Lecture lecture : lectures) {
+                days.add(schedule.dayOf(lecture.slot));
+            }
+
+            long version;
+            List<ReentrantLock> locks = schedule.lockDays(days);
+            try {
+                if (schedule.log().hasFailed()) {
+                    return "ERROR: Nothing imported. " + WriteAheadLog.FAILED;
+                }
+                synchronized (schedule.moduleLock) {
+                    Set<String> newModules = new HashSet<>();
+                    for (int i = 0; i < lectures.size(); i++) {
+                        Lecture lecture = lectures.get(i);
+                        if (!schedule.isRoomFree(lecture.room, lecture.slot, lecture.length)) {
+                            return "ERROR: Nothing imported. " + unit + " " + positions[i] + ": Room " + lecture.room
+                                    + " is already booked at " + lecture.time + " on " + lecture.day + ".";
+                        }
+                        if (!schedule.isModuleFree(lecture.module, lecture.slot, lecture.length)) {
+                            return "ERROR: Nothing imported. " + unit + " " + positions[i] + ": Module " + lecture.module
+                                    + " already has a lecture at " + lecture.time + " on " + lecture.day + ".";
+                        }
+                        if (!schedule.hasModule(lecture.module)) newModules.add(lecture.module);
+                    }
+                    int limit = TCPEchoServer.moduleLimit;
+                    if (limit > 0 && schedule.moduleCount() + newModules.size() > limit) {
+                        return "ERROR: Nothing imported. Cannot add more than " + limit + " modules.";
+                    }
+                    version = schedule.putAll(lectures);
+                }
+            } finally {
+                Timetable.unlockDays(locks);
+            }
+
+            if (!schedule.log().awaitDurable()) {
+                return "ERROR: Lectures imported but could not be written to the log.";
+            }
+            return "Imported " + lectures.size() + " lectures | Version: " + version;
+        }
+    }
+
+    // IMPORT FILE|<name>|CSV or BINARY||
+    static String importFile(Request request) {
+        Path path = resolve(request.field(1).trim());
+        if (path == null) {
+            return fileError(request.field(1).trim());
+        }
+        String format = request.field(2).trim().toUpperCase();
+        if (!format.isEmpty() && !format.equals("CSV") && !format.equals("BINARY")) {
+            return "ERROR: Invalid format: " + request.field(2).trim() + " (CSV or BINARY).";
+        }
+
+        Timetable schedule = TCPEchoServer.schedule;
+        try {
+            Import rows;
+            if (format.equals("BINARY")) {
+                rows = new Import(schedule, "Lecture");
+                Checkpoint.read(path, schedule.calendar, rows::addLecture);
+            } else {
+                rows = new Import(schedule, "Line");
+                try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        rows.add(line);
+                    }
+                }
+            }
+            return rows.apply();
+        } catch (NoSuchFileException e) {
+            return "ERROR: No such file: " + request.field(1).trim();
+        } catch (IOException e) {
+            return "ERROR: Cannot read " + request.field(1).trim() + ": " + e.getMessage();
+        }
+    }
+
+    // EXPORT FILE|<name>|CSV or BINARY||
+    static String exportFile(Request request) {
+        Path path = resolve(request.field(1).trim());
+        if (path == null) {
+            return fileError(request.field(1).trim());
+        }
+        String format = request.field(2).trim().toUpperCase();
+        if (!format.isEmpty() && !format.equals("CSV") && !format.equals("BINARY")) {
+            return "ERROR: Invalid format: " + request.field(2).trim() + " (CSV or BINARY).";
+        }
+
+        Timetable schedule = TCPEchoServer.schedule;
+        ScheduleSnapshot snapshot = schedule.snapshot();
+        try {
+            if (format.equals("BINARY")) {
+                Checkpoint.write(path, snapshot, schedule.calendar);
+            } else {
+                // Written beside the target and moved over it, so readers never see half a file
+                Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+                try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                    out.write(CSV_HEADER);
+                    out.write('\n');
+                    Iterator<String> rows = rows(snapshot);
+                    while (rows.hasNext()) {
+                        out.write(rows.next());
+                    }
+                }
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException e) {
+            return "ERROR: Cannot write " + request.field(1).trim() + ": " + e.getMessage();
+        }
+        return "Exported " + snapshot.size + " lectures | Version: " + snapshot.version;
+    }
+
+    // First line of the EXPORT response; rows(snapshot) follow it
+    static String exportHeader(ScheduleSnapshot snapshot) {
+        return "EXPORT | Version: " + snapshot.version + " | Rows: " + snapshot.size;
+    }
+
+    // The snapshot's CSV rows, one day's worth of "\n"-terminated rows per element
+    static Iterator<String> rows(ScheduleSnapshot snapshot) {
+        return new Iterator<String>() {
+            private int day = nextDay(0);
+
+            private int nextDay(int from) {
+                int d = from;
+                while (d < snapshot.dayCount() && snapshot.lecturesOn(d) == 0) d++;
+                return d;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return day < snapshot.dayCount();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                StringBuilder sb = new StringBuilder();
+                for (int s = 0; s < snapshot.slotsPerDay(); s++) {
+                    for (Lecture lecture : snapshot.startingAt(day, s)) {
+                        appendCsv(sb, lecture.day).append(',');
+                        appendCsv(sb, lecture.time).append(',');
+                        appendCsv(sb, lecture.room).append(',');
+                        appendCsv(sb, lecture.module).append(',').append(lecture.minutes).append('\n');
+                    }
+                }
+                day = nextDay(day + 1);
+                return sb.toString();
+            }
+        };
+    }
+
+    // The file 'name' inside the data directory, or null when file transfers are off or it points outside
+    private static Path resolve(String name) {
+        Path dir = TCPEchoServer.dataDir;
+        if (dir == null || name.isEmpty()) return null;
+        Path path = dir.resolve(name).normalize();
+        return path.startsWith(dir) && !path.equals(dir) ? path : null;
+    }
+
+    private static String fileError(String name) {
+        if (TCPEchoServer.dataDir == null) {
+            return "ERROR: File import and export are off, start the server with --data-dir.";
+        }
+        return "ERROR: Invalid file name: " + name + " (a file in the data directory).";
+    }
+
+    private static StringBuilder appendCsv(StringBuilder sb, String field) {
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0) return sb.append(field);
+        return sb.append('"').append(field.replace("\"", "\"\"")).append('"');
+    }
+
+    // Fields of a CSV line, trimmed, with "" inside quotes read as one quote; null if a quote is not closed
+    static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) return null;
+        fields.add(field.toString().trim());
+        return fields;
+    }
+}
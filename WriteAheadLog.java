@@ -0,0 +1,552 @@
+package com.mycompany.tcpechoserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Append-only log of schedule mutations, replayed at startup.
+//
+// Timetable appends a record for every put, batch of puts, remove, replacement and
+// compacted day while it still holds the day lock, so the records of one day
+// are in the order they were applied. Records are buffered and written through one FileChannel:
+//  - SYNC:  every append is written and fsynced before the day lock is released
+//  - GROUP: callers wait in awaitDurable() after releasing their locks; one of
+//           them writes and fsyncs everything buffered so far for the whole group
+//  - ASYNC: a background thread writes and fsyncs every ASYNC_INTERVAL_MS
+//
+// A leader also hands every record to its Replication.Backlog as it is appended,
+// whether or not there is a log file, and followers apply the same bytes.
+//
+// Each record carries the snapshot version its write produced. A checkpoint of
+// snapshot V therefore replaces every record with version <= V, and the log is
+// split into numbered segments (FILE.1, FILE.2, ...) so covered segments can be
+// deleted after a checkpoint.
+//
+// Record layout: int payload length, int CRC32 of payload, payload.
+// Payload: byte op, long version, short day, short slot of the day, then
+//  - ADD:         short length in slots, UTF room, UTF module
+//  - REMOVE:      UTF room
+//  - COMPACT:     nothing more
+//  - ADD_ALL:     int count, then per lecture short day, short slot of the day,
+//                 short length, UTF room, UTF module (the record's own day and
+//                 slot are 0). One checksum covers the batch, so a torn write
+//                 loses all of it, never part of it.
+//  - REPLACE:     int count, then per removed lecture short day, short slot of the
+//                 day, UTF room; then the added lectures laid out as in ADD_ALL.
+//                 MOVE, SWAP and BATCH write one, so they too replay whole or not at all.
+class WriteAheadLog {
+    enum Durability { SYNC, GROUP, ASYNC }
+
+    static final byte ADD = 1;
+    static final byte REMOVE = 2;
+    static final byte COMPACT = 3;
+    static final byte ADD_ALL = 4;
+    static final byte REPLACE = 5;
+
+    // Writers check hasFailed() before changing the schedule and answer this instead:
+    // a change the log cannot hold would be seen by clients and followers, then lost on restart
+    static final String FAILED = "The write-ahead log has failed, writes are refused until the server is restarted.";
+
+    private static final int HEADER = 8;
+    private static final long ASYNC_INTERVAL_MS = 50;
+
+    // Used when the server runs without --wal
+    static final WriteAheadLog DISABLED = new WriteAheadLog(null, null, 0, Durability.ASYNC);
+
+    private final Path basePath;
+    private final Durability durability;
+    private volatile Replication.Backlog backlog; // followers are streamed every record when set
+
+    // Guarded by this
+    private FileChannel channel;
+    private int segment;
+    private long segmentMaxVersion;
+    private final Map<Integer, Long> sealedSegments = new TreeMap<>(); // segment -> highest version in it
+    private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+    private long appended; // records appended so far
+    private long durable;  // records written and fsynced
+    private boolean flushing;
+    private IOException failure; // set when a batch could not be written; the log stays failed until restart
+
+    // Filled in by open() for startup reporting
+    long replayedRecords;
+
+    private WriteAheadLog(Path basePath, FileChannel channel, int segment, Durability durability) {
+        this.basePath = basePath;
+        this.channel = channel;
+        this.segment = segment;
+        this.durability = durability;
+    }
+
+    // Replays every segment of the log at 'basePath' into the schedule, skipping
+    // records already covered by a checkpoint of version 'checkpointVersion',
+    // drops any torn record left by a crash, and opens a new segment for appending
+    static WriteAheadLog open(Path basePath, Durability durability, Timetable schedule, long checkpointVersion) throws IOException {
+        TreeMap<Integer, Path> existing = segments(basePath);
+        Map<Integer, Long> sealed = new TreeMap<>();
+        long replayed = 0;
+        long maxVersion = checkpointVersion;
+
+        for (Map.Entry<Integer, Path> entry : existing.entrySet()) {
+            long[] result = replay(entry.getValue(), schedule, checkpointVersion);
+            replayed += result[1];
+            maxVersion = Math.max(maxVersion, result[2]);
+            sealed.put(entry.getKey(), result[2]);
+
+            // Only the tail of a segment can be torn; cut it off so it is never misread
+            if (result[0] < Files.size(entry.getValue())) {
+                try (FileChannel torn = FileChannel.open(entry.getValue(), StandardOpenOption.WRITE)) {
+                    torn.truncate(result[0]);
+                }
+            }
+        }
+
+        // Versions carry on from the newest replayed record, never below it
+        schedule.restoreVersion(maxVersion);
+
+        int next = existing.isEmpty() ? 1 : existing.lastKey() + 1;
+        WriteAheadLog log = new WriteAheadLog(basePath, openSegment(basePath, next), next, durability);
+        log.sealedSegments.putAll(sealed);
+        log.replayedRecords = replayed;
+
+        if (durability == Durability.ASYNC) {
+            Thread flusher = new Thread(log::flushPeriodically, "wal-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+        return log;
+    }
+
+    boolean isEnabled() {
+        return basePath != null;
+    }
+
+    // A log that only hands its records to followers, for a server without --wal
+    static WriteAheadLog memoryOnly() {
+        return new WriteAheadLog(null, null, 0, Durability.ASYNC);
+    }
+
+    void setBacklog(Replication.Backlog backlog) {
+        this.backlog = backlog;
+    }
+
+    private boolean isRecording() {
+        return basePath != null || backlog != null;
+    }
+
+    // Caller holds the lecture's day lock
+    void appendAdd(long version, int day, int slotOfDay, Lecture lecture) {
+        if (!isRecording()) return;
+        append(version, record(ADD, version, day, slotOfDay, lecture.length, lecture.room, lecture.module));
+    }
+
+    // Caller holds the locks of every day the lectures fall on
+    void appendAddAll(long version, Timetable schedule, List<Lecture> lectures) {
+        if (!isRecording()) return;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + 32 * lectures.size());
+            DataOutputStream out = header(bytes, ADD_ALL, version, 0, 0);
+            writeLectures(out, schedule, lectures);
+            append(version, seal(bytes));
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // cannot happen writing to memory
+        }
+    }
+
+    // Caller holds the locks of every day the lectures fall on
+    void appendReplace(long version, Timetable schedule, List<Lecture> removed, List<Lecture> added) {
+        if (!isRecording()) return;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(24 + 16 * removed.size() + 32 * added.size());
+            DataOutputStream out = header(bytes, REPLACE, version, 0, 0);
+            out.writeInt(removed.size());
+            for (Lecture lecture : removed) {
+                out.writeShort(schedule.dayOf(lecture.slot));
+                out.writeShort(schedule.slotOfDay(lecture.slot));
+                out.writeUTF(lecture.room);
+            }
+            writeLectures(out, schedule, added);
+            append(version, seal(bytes));
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // cannot happen writing to memory
+        }
+    }
+
+    private static void writeLectures(DataOutputStream out, Timetable schedule, List<Lecture> lectures) throws IOException {
+        out.writeInt(lectures.size());
+        for (Lecture lecture : lectures) {
+            out.writeShort(schedule.dayOf(lecture.slot));
+            out.writeShort(schedule.slotOfDay(lecture.slot));
+            out.writeShort(lecture.length);
+            out.writeUTF(lecture.room);
+            out.writeUTF(lecture.module);
+        }
+    }
+
+    // Caller holds the day lock
+    void appendRemove(long version, int day, int slotOfDay, String room) {
+        if (!isRecording()) return;
+        append(version, record(REMOVE, version, day, slotOfDay, 0, room, null));
+    }
+
+    // Caller holds the day lock
+    void appendCompact(long version, int day) {
+        if (!isRecording()) return;
+        append(version, record(COMPACT, version, day, 0, 0, null, null));
+    }
+
+    // True once a batch could not be written
+    synchronized boolean hasFailed() {
+        return failure != null;
+    }
+
+    // Blocks until every record appended before this call is on disk.
+    // Returns false if the log could not be written.
+    boolean awaitDurable() {
+        if (basePath == null) return true;
+
+        long target;
+        synchronized (this) {
+            if (failure != null) return false;
+            if (durability == Durability.ASYNC) return true;
+            target = appended;
+        }
+        try {
+            flushUpTo(target, false);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Write-ahead log error: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Seals the current segment and starts a new one. Appenders are only held
+    // up for the buffer swap - the sealed batch is written after the swap.
+    void rotate() throws IOException {
+        if (basePath == null) return;
+
+        long target;
+        synchronized (this) {
+            target = appended;
+        }
+        flushUpTo(target, true);
+    }
+
+    // Deletes sealed segments whose records are all covered by a checkpoint of 'version'
+    void deleteSegmentsUpTo(long version) throws IOException {
+        if (basePath == null) return;
+
+        Map<Integer, Long> covered = new TreeMap<>();
+        synchronized (this) {
+            sealedSegments.forEach((seg, max) -> {
+                if (max <= version) covered.put(seg, max);
+            });
+            sealedSegments.keySet().removeAll(covered.keySet());
+        }
+        for (int seg : covered.keySet()) {
+            Files.deleteIfExists(segmentPath(basePath, seg));
+        }
+    }
+
+    void close() throws IOException {
+        if (basePath == null) return;
+
+        long target;
+        synchronized (this) {
+            target = appended;
+        }
+        flushUpTo(target, false);
+        synchronized (this) {
+            channel.close();
+        }
+    }
+
+    private void append(long version, byte[] record) {
+        Replication.Backlog followers = backlog;
+        if (followers != null) followers.add(version, record);
+        if (basePath == null) return;
+
+        synchronized (this) {
+            if (failure != null) return; // nothing more reaches the disk, so nothing is buffered
+            if (pending.remaining() < record.length) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + record.length));
+                pending.flip();
+                bigger.put(pending);
+                pending = bigger;
+            }
+            pending.put(record);
+            appended++;
+            segmentMaxVersion = Math.max(segmentMaxVersion, version);
+        }
+
+        if (durability == Durability.SYNC) {
+            awaitDurable();
+        }
+    }
+
+    // Group commit: the first waiter becomes the flusher and writes the whole
+    // buffer; waiters whose records were in that batch return without an fsync.
+    // With 'rotate' the batch closes the current segment and later appends go to a new one.
+    // A batch that fails to write fails the log: writing later records would move
+    // 'durable' past the lost ones, and replay would silently skip their versions.
+    private void flushUpTo(long target, boolean rotate) throws IOException {
+        while (true) {
+            ByteBuffer batch;
+            long upTo;
+            FileChannel out;
+            synchronized (this) {
+                while (flushing && (rotate || durable < target)) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted waiting for the write-ahead log");
+                    }
+                }
+                if (failure != null) {
+                    throw new IOException("Write-ahead log failed earlier: " + failure.getMessage());
+                }
+                if (!rotate && durable >= target) return;
+
+                flushing = true;
+                pending.flip();
+                batch = pending;
+                pending = ByteBuffer.allocate(batch.capacity());
+                upTo = appended;
+                out = channel;
+
+                if (rotate) {
+                    try {
+                        channel = openSegment(basePath, segment + 1);
+                    } catch (IOException e) {
+                        flushing = false;
+                        pending = batch.compact();
+                        throw e;
+                    }
+                    sealedSegments.put(segment, segmentMaxVersion);
+                    segment++;
+                    segmentMaxVersion = 0;
+                }
+            }
+
+            boolean written = false;
+            IOException error = null;
+            try {
+                while (batch.hasRemaining()) {
+                    out.write(batch);
+                }
+                out.force(false);
+                if (rotate) out.close();
+                written = true;
+            } catch (IOException e) {
+                error = e;
+                throw e;
+            } finally {
+                synchronized (this) {
+                    flushing = false;
+                    if (written) durable = upTo;
+                    else if (failure == null) failure = error != null ? error : new IOException("A batch of records was not written");
+                    notifyAll();
+                }
+            }
+            if (rotate) return;
+        }
+    }
+
+    private void flushPeriodically() {
+        while (true) {
+            try {
+                Thread.sleep(ASYNC_INTERVAL_MS);
+                long target;
+                synchronized (this) {
+                    if (!channel.isOpen()) return;
+                    target = appended;
+                }
+                flushUpTo(target, false);
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                System.err.println("Write-ahead log error: " + e.getMessage());
+                return; // the log has failed, later flushes would only fail again
+            }
+        }
+    }
+
+    private static Path segmentPath(Path basePath, int segment) {
+        return basePath.resolveSibling(basePath.getFileName() + "." + segment);
+    }
+
+    private static FileChannel openSegment(Path basePath, int segment) throws IOException {
+        return FileChannel.open(segmentPath(basePath, segment), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    // Existing segments of the log, in order
+    private static TreeMap<Integer, Path> segments(Path basePath) throws IOException {
+        TreeMap<Integer, Path> result = new TreeMap<>();
+        Path dir = basePath.toAbsolutePath().getParent();
+        String prefix = basePath.getFileName() + ".";
+        if (dir == null || !Files.isDirectory(dir)) return result;
+
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(file -> {
+                String name = file.getFileName().toString();
+                if (!name.startsWith(prefix)) return;
+                try {
+                    result.put(Integer.parseInt(name.substring(prefix.length())), file);
+                } catch (NumberFormatException e) {
+                    // some other file, e.g. the checkpoint
+                }
+            });
+        }
+        return result;
+    }
+
+    private static byte[] record(byte op, long version, int day, int slotOfDay, int length, String room, String module) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(40);
+            DataOutputStream out = header(bytes, op, version, day, slotOfDay);
+            if (op == ADD) {
+                out.writeShort(length);
+                out.writeUTF(room);
+                out.writeUTF(module);
+            } else if (op == REMOVE) {
+                out.writeUTF(room);
+            }
+            return seal(bytes);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // cannot happen writing to memory
+        }
+    }
+
+    // Starts a record: room for its length and checksum, then the common payload fields
+    private static DataOutputStream header(ByteArrayOutputStream bytes, byte op, long version, int day, int slotOfDay)
+            throws IOException {
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0); // length, filled in by seal
+        out.writeInt(0); // crc
+        out.writeByte(op);
+        out.writeLong(version);
+        out.writeShort(day);
+        out.writeShort(slotOfDay);
+        return out;
+    }
+
+    private static byte[] seal(ByteArrayOutputStream bytes) {
+        byte[] record = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(record, HEADER, record.length - HEADER);
+        ByteBuffer.wrap(record).putInt(record.length - HEADER).putInt((int) crc.getValue());
+        return record;
+    }
+
+    // Applies every intact record newer than 'afterVersion'.
+    // Returns {length of the valid prefix, records applied, highest version seen}.
+    private static long[] replay(Path path, Timetable schedule, long afterVersion) throws IOException {
+        byte[] data = Files.readAllBytes(path);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        CRC32 crc = new CRC32();
+        long applied = 0;
+        long maxVersion = 0;
+
+        while (buf.remaining() >= HEADER) {
+            int start = buf.position();
+            int length = buf.getInt();
+            int checksum = buf.getInt();
+            if (length <= 0 || length > buf.remaining()) return new long[] {start, applied, maxVersion};
+
+            crc.reset();
+            crc.update(data, buf.position(), length);
+            if ((int) crc.getValue() != checksum) return new long[] {start, applied, maxVersion};
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, buf.position(), length));
+            long version = apply(in, schedule, afterVersion);
+            if (version > afterVersion) applied++;
+            maxVersion = Math.max(maxVersion, version);
+            buf.position(buf.position() + length);
+        }
+        return new long[] {buf.position(), applied, maxVersion};
+    }
+
+    // Applies one whole record as built by append(), checksum included; returns its version
+    static long applyRecord(byte[] record, Timetable schedule) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(record);
+        if (record.length <= HEADER || buf.getInt() != record.length - HEADER) {
+            throw new IOException("Truncated write-ahead log record");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record, HEADER, record.length - HEADER);
+        if ((int) crc.getValue() != buf.getInt()) {
+            throw new IOException("Corrupt write-ahead log record");
+        }
+        return apply(new DataInputStream(new ByteArrayInputStream(record, HEADER, record.length - HEADER)), schedule, -1);
+    }
+
+    // Version of a record built by append(), read without applying it
+    static long recordVersion(byte[] record) {
+        return ByteBuffer.wrap(record).getLong(HEADER + 1);
+    }
+
+    // Returns the record's version; records at or below 'afterVersion' are skipped
+    private static long apply(DataInputStream in, Timetable schedule, long afterVersion) throws IOException {
+        byte op = in.readByte();
+        long version = in.readLong();
+        int day = in.readShort();
+        int slotOfDay = in.readShort();
+        if (version <= afterVersion) return version;
+
+        TermCalendar calendar = schedule.calendar;
+        switch (op) {
+            case ADD:
+                int length = in.readShort();
+                schedule.put(calendar.lecture(day, slotOfDay, length, in.readUTF(), in.readUTF()));
+                break;
+            case REMOVE:
+                schedule.remove(schedule.slot(day, slotOfDay), in.readUTF());
+                break;
+            case COMPACT:
+                schedule.compactDay(day);
+                break;
+            case ADD_ALL:
+                schedule.putAll(readLectures(in, calendar));
+                break;
+            case REPLACE:
+                int count = in.readInt();
+                List<Lecture> removed = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    int removedSlot = schedule.slot(in.readShort(), in.readShort());
+                    Lecture lecture = schedule.get(removedSlot, in.readUTF());
+                    if (lecture != null) removed.add(lecture);
+                }
+                schedule.replace(removed, readLectures(in, calendar));
+                break;
+            default:
+                throw new IOException("Unknown write-ahead log record: " + op);
+        }
+        return version;
+    }
+
+    private static List<Lecture> readLectures(DataInputStream in, TermCalendar calendar) throws IOException {
+        int count = in.readInt();
+        List<Lecture> lectures = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int day = in.readShort();
+            int slotOfDay = in.readShort();
+            int length = in.readShort();
+            lectures.add(calendar.lecture(day, slotOfDay, length, in.readUTF(), in.readUTF()));
+        }
+        return lectures;
+    }
+}
@@ -0,0 +1,67 @@
+package com.mycompany.tcpechoserver;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// DISPLAY SCHEDULE rendering across schedule sizes: straight from the snapshot's
+// cached text, and after a write has invalidated one day of it.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class DisplayBenchmark {
+    @Param({"1", "10", "25", "44"})
+    public int lectures;
+
+    private final Request display = new Request();
+    private Timetable schedule;
+    private int toggled; // a slot left empty by fill()
+    private Lecture lecture;
+
+    @Setup
+    public void setup() {
+        schedule = TCPEchoServer.schedule;
+        Schedules.fill(schedule, lectures);
+        display.parse("DISPLAY SCHEDULE||||");
+
+        for (int slot = 0; slot < schedule.capacity(); slot++) {
+            if (schedule.startingAt(slot).length == 0) {
+                toggled = slot;
+                break;
+            }
+        }
+        lecture = schedule.calendar.lecture(schedule.dayOf(toggled), schedule.slotOfDay(toggled), 1, "R-toggle", "M-toggle");
+    }
+
+    @Benchmark
+    public String display() {
+        return TCPEchoServer.processRequest(display);
+    }
+
+    // Books or frees one slot, then renders the new snapshot
+    @Benchmark
+    public String displayAfterWrite() {
+        ReentrantLock lock = schedule.lockDay(schedule.dayOf(toggled));
+        try {
+            if (schedule.get(toggled, lecture.room) == null) schedule.put(lecture);
+            else schedule.remove(toggled, lecture.room);
+        } finally {
+            lock.unlock();
+        }
+        return TCPEchoServer.processRequest(display);
+    }
+}
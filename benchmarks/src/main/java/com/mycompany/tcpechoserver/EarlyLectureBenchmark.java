@@ -0,0 +1,47 @@
+package com.mycompany.tcpechoserver;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// EARLY LECTURES compaction across schedule sizes and EarlyLecture split
+// thresholds (days per leaf task). Each invocation compacts a freshly filled
+// private timetable with the same seeded layout; the refill runs in an
+// invocation-level setup, outside the measured time.
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2000, batchSize = 1)
+@Measurement(iterations = 2000, batchSize = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class EarlyLectureBenchmark {
+    @Param({"5", "20", "40"})
+    public int lectures;
+
+    @Param({"1", "2", "5"})
+    public int threshold;
+
+    private final Timetable schedule = new Timetable(TermCalendar.DEFAULT);
+
+    @Setup(Level.Invocation)
+    public void refill() {
+        Schedules.fill(schedule, lectures);
+    }
+
+    @Benchmark
+    public int compact() {
+        return ForkJoinPool.commonPool().invoke(new EarlyLecture(schedule, 0, schedule.days, threshold));
+    }
+}
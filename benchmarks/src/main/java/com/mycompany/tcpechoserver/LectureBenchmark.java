@@ -0,0 +1,68 @@
+package com.mycompany.tcpechoserver;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.ThreadParams;
+
+// ADD LECTURE followed by REMOVE LECTURE of the same slot, on one thread and on
+// every hardware thread. Each thread owns a slot; threads beyond the number of
+// days share day locks, which is the contention being measured. Other thread
+// counts: java -jar benchmarks.jar LectureBenchmark.addRemove -t 2
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class LectureBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class EmptySchedule {
+        @Setup
+        public void setup() {
+            Schedules.clear(TCPEchoServer.schedule);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Slot {
+        final Request request = new Request();
+        String add;
+        String remove;
+
+        @Setup
+        public void setup(ThreadParams thread) {
+            int i = thread.getThreadIndex();
+            TermCalendar calendar = TCPEchoServer.schedule.calendar;
+            String day = calendar.dayLabel(i % calendar.days);
+            String time = calendar.timeLabel(i / calendar.days % calendar.slotsPerDay);
+            add = "ADD LECTURE|" + day + "|" + time + "|R" + i + "|M" + i % Schedules.MODULES;
+            remove = "REMOVE LECTURE|" + day + "|" + time + "|R" + i + "|";
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void addRemove(EmptySchedule schedule, Slot slot, Blackhole bh) {
+        bh.consume(TCPEchoServer.processRequest(slot.request.parse(slot.add)));
+        bh.consume(TCPEchoServer.processRequest(slot.request.parse(slot.remove)));
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void addRemoveAllThreads(EmptySchedule schedule, Slot slot, Blackhole bh) {
+        bh.consume(TCPEchoServer.processRequest(slot.request.parse(slot.add)));
+        bh.consume(TCPEchoServer.processRequest(slot.request.parse(slot.remove)));
+    }
+}
@@ -0,0 +1,51 @@
+package com.mycompany.tcpechoserver;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Request parsing and processRequest dispatch. The lines don't change the
+// schedule, so every invocation does the same work.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class RequestBenchmark {
+    @Param({
+        "DISPLAY SCHEDULE||||",
+        "MODULE SCHEDULE||||M1",
+        "ADD LECTURE|Wednesday|25:00|CS101|M1", // rejected by validation after parsing
+        "bogus|x|y|z|w"
+    })
+    public String line;
+
+    private final Request request = new Request();
+
+    @Setup
+    public void setup() {
+        Schedules.fill(TCPEchoServer.schedule, 20);
+    }
+
+    @Benchmark
+    public Request parse() {
+        return request.parse(line);
+    }
+
+    // Parses into the reused per-connection Request, as ClientSession does
+    @Benchmark
+    public String processRequest() {
+        return TCPEchoServer.processRequest(request.parse(line));
+    }
+}
@@ -0,0 +1,58 @@
+package com.mycompany.tcpechoserver;
+
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Builds the timetables the benchmarks run against. A fixed seed gives every
+// run, fork and commit the same layout, so results stay comparable.
+final class Schedules {
+    static final long SEED = 42;
+    static final int MODULES = 5; // the server's module limit
+
+    private Schedules() {
+    }
+
+    static void clear(Timetable schedule) {
+        for (int day = 0; day < schedule.days; day++) {
+            ReentrantLock lock = schedule.lockDay(day);
+            try {
+                for (int s = 0; s < schedule.slotsPerDay; s++) {
+                    int slot = schedule.slot(day, s);
+                    for (Lecture lecture : schedule.startingAt(slot)) {
+                        schedule.remove(slot, lecture.room);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // Clears the schedule and books 'lectures' one-slot lectures, each in its own
+    // slot, room and module cycle, at slots picked by the fixed seed
+    static void fill(Timetable schedule, int lectures) {
+        clear(schedule);
+
+        int[] slots = new int[schedule.capacity()];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = i;
+        }
+        Random random = new Random(SEED);
+        for (int i = slots.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = slots[i];
+            slots[i] = slots[j];
+            slots[j] = t;
+        }
+
+        for (int i = 0; i < Math.min(lectures, slots.length); i++) {
+            int day = schedule.dayOf(slots[i]);
+            ReentrantLock lock = schedule.lockDay(day);
+            try {
+                schedule.put(schedule.calendar.lecture(day, schedule.slotOfDay(slots[i]), 1, "R" + i, "M" + i % MODULES));
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
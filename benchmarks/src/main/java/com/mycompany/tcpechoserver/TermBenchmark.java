@@ -0,0 +1,121 @@
+package com.mycompany.tcpechoserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The ADD LECTURE clash check and a booking on a whole term: 15 weeks of
+// 15-minute slots, every room about half booked with 1-2 hour lectures of up to
+// MODULES modules. The check reads a few occupancy words per room and module, so
+// it should cost the same with 20 rooms as with 500. FIND FREE builds a room's
+// free starts for a week from the same bitmaps.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class TermBenchmark {
+    static final int MODULES = 2000;
+    static final int PROBES = 1024;
+
+    @Param({"20", "500"})
+    public int rooms;
+
+    private final TermCalendar calendar = new TermCalendar(15, 9 * 60, 18 * 60, 15);
+    private Timetable schedule;
+    private Lecture[] probes;     // random lectures, booked or not
+    private Lecture[] freeProbes; // lectures whose room and module are free
+    private int next;
+
+    @Setup
+    public void setup() {
+        schedule = new Timetable(calendar);
+        Random random = new Random(Schedules.SEED);
+        for (int r = 0; r < rooms; r++) {
+            for (int day = 0; day < calendar.days; day++) {
+                int s = random.nextInt(8);
+                while (true) {
+                    int length = 4 + random.nextInt(5);
+                    if (s + length > calendar.slotsPerDay) break;
+                    book(calendar.lecture(day, s, length, "R" + r, "M" + random.nextInt(MODULES)));
+                    s += length + random.nextInt(2 * length); // about half of every room booked
+                }
+            }
+        }
+
+        probes = new Lecture[PROBES];
+        for (int i = 0; i < PROBES; i++) {
+            probes[i] = randomLecture(random);
+        }
+        List<Lecture> free = new ArrayList<>();
+        while (free.size() < PROBES) {
+            Lecture lecture = randomLecture(random);
+            if (isFree(lecture)) free.add(lecture);
+        }
+        freeProbes = free.toArray(new Lecture[0]);
+    }
+
+    private Lecture randomLecture(Random random) {
+        int length = 4 + random.nextInt(5);
+        return calendar.lecture(random.nextInt(calendar.days), random.nextInt(calendar.slotsPerDay - length + 1), length,
+                "R" + random.nextInt(rooms), "M" + random.nextInt(MODULES));
+    }
+
+    private void book(Lecture lecture) {
+        if (isFree(lecture)) schedule.put(lecture);
+    }
+
+    private boolean isFree(Lecture lecture) {
+        return schedule.isRoomFree(lecture.room, lecture.slot, lecture.length)
+                && schedule.isModuleFree(lecture.module, lecture.slot, lecture.length);
+    }
+
+    // Room and module clash check under the day lock, as addLecture does it
+    @Benchmark
+    public boolean clashCheck() {
+        Lecture lecture = probes[next++ & (PROBES - 1)];
+        ReentrantLock lock = schedule.lockDay(schedule.dayOf(lecture.slot));
+        try {
+            return isFree(lecture);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Starts of a one-hour lecture free in the room and for the module during the probe's week
+    @Benchmark
+    public long[] freeStartsForWeek() {
+        Lecture lecture = probes[next++ & (PROBES - 1)];
+        int week = schedule.dayOf(lecture.slot) / TermCalendar.WEEKDAYS.length * TermCalendar.WEEKDAYS.length;
+        long[] allowed = schedule.startMask(week, week + TermCalendar.WEEKDAYS.length - 1, 0, calendar.defaultSlots);
+        return schedule.freeStarts(lecture.room, lecture.module, allowed, calendar.defaultSlots);
+    }
+
+    // Books a free lecture and frees it again, publishing two snapshots of its day
+    @Benchmark
+    public Lecture bookAndFree() {
+        Lecture lecture = freeProbes[next++ & (PROBES - 1)];
+        ReentrantLock lock = schedule.lockDay(schedule.dayOf(lecture.slot));
+        try {
+            schedule.put(lecture);
+            return schedule.remove(lecture.slot, lecture.room);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.mycompany.tcpechoserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CheckpointTest {
+    private final TermCalendar calendar = new TermCalendar(2, 8 * 60, 20 * 60, 30);
+
+    @TempDir
+    Path dir;
+
+    private Path path() {
+        return dir.resolve("schedule.checkpoint");
+    }
+
+    private Timetable sample() {
+        Timetable schedule = new Timetable(calendar);
+        schedule.put(calendar.lecture(0, 0, 2, "R1", "M1"));
+        schedule.put(calendar.lecture(0, 0, 1, "Salle É", "Module ü"));
+        schedule.put(calendar.lecture(9, 20, 4, "R1", "M2"));
+        schedule.remove(schedule.slot(0, 0), "R1");
+        schedule.put(calendar.lecture(4, 7, 3, "R1", "M1"));
+        return schedule;
+    }
+
+    private static List<String> lectures(Timetable schedule) {
+        List<String> lectures = new ArrayList<>();
+        for (int slot = 0; slot < schedule.capacity(); slot++) {
+            for (Lecture lecture : schedule.startingAt(slot)) {
+                lectures.add(slot + " " + lecture.length + " " + lecture.room + " " + lecture.module);
+            }
+        }
+        return lectures;
+    }
+
+    @Test
+    void roundTrip() throws IOException {
+        Timetable schedule = sample();
+        Checkpoint.write(path(), schedule.snapshot(), calendar);
+
+        Timetable loaded = new Timetable(calendar);
+        assertEquals(schedule.version(), Checkpoint.load(path(), loaded));
+        assertEquals(lectures(schedule), lectures(loaded));
+        assertEquals(schedule.version(), loaded.version());
+        assertEquals(2, loaded.lectureCount("M1") + loaded.lectureCount("Module ü"));
+        assertEquals(schedule.roomBusy("R1")[0], loaded.roomBusy("R1")[0]);
+        assertFalse(Files.exists(dir.resolve("schedule.checkpoint.tmp")));
+    }
+
+    @Test
+    void emptyRoundTrip() throws IOException {
+        Checkpoint.write(path(), new Timetable(calendar).snapshot(), calendar);
+
+        Timetable loaded = new Timetable(calendar);
+        assertEquals(0, Checkpoint.load(path(), loaded));
+        assertTrue(loaded.isEmpty());
+    }
+
+    @Test
+    void noCheckpointIsVersionZero() throws IOException {
+        assertEquals(0, Checkpoint.load(path(), new Timetable(calendar)));
+    }
+
+    @Test
+    void rejectsACorruptFile() throws IOException {
+        Checkpoint.write(path(), sample().snapshot(), calendar);
+        try (RandomAccessFile file = new RandomAccessFile(path().toFile(), "rw")) {
+            file.seek(file.length() / 2);
+            int b = file.read();
+            file.seek(file.length() / 2);
+            file.write(b ^ 0x40);
+        }
+
+        IOException e = assertThrows(IOException.class, () -> Checkpoint.load(path(), new Timetable(calendar)));
+        assertTrue(e.getMessage().contains("corrupt"), e.getMessage());
+    }
+
+    @Test
+    void rejectsAnotherCalendar() throws IOException {
+        Checkpoint.write(path(), sample().snapshot(), calendar);
+
+        assertThrows(IOException.class, () -> Checkpoint.load(path(), new Timetable(TermCalendar.DEFAULT)));
+    }
+
+    @Test
+    void takeDeletesCoveredLogSegments() throws IOException {
+        Path wal = dir.resolve("schedule.wal");
+        Timetable schedule = new Timetable(calendar);
+        schedule.setLog(WriteAheadLog.open(wal, WriteAheadLog.Durability.SYNC, schedule, 0));
+        schedule.put(calendar.lecture(0, 0, 1, "R1", "M1"));
+        schedule.put(calendar.lecture(0, 1, 1, "R1", "M1"));
+
+        assertEquals(2, Checkpoint.take(path(), schedule, message -> { }));
+        assertFalse(Files.exists(dir.resolve("schedule.wal.1")));
+        schedule.put(calendar.lecture(0, 2, 1, "R1", "M1"));
+        schedule.log().close();
+
+        // As at startup: the checkpoint, then only the records after it
+        Timetable restored = new Timetable(calendar);
+        long version = Checkpoint.load(path(), restored);
+        restored.setLog(WriteAheadLog.open(wal, WriteAheadLog.Durability.SYNC, restored, version));
+        assertEquals(1, restored.log().replayedRecords);
+        assertEquals(lectures(schedule), lectures(restored));
+        assertEquals(3, restored.version());
+        restored.log().close();
+    }
+}
@@ -0,0 +1,110 @@
+package com.mycompany.tcpechoserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+// Parsed against the default calendar of TCPEchoServer.schedule: one week, 09:00-18:00 in hours
+class RequestTest {
+    private final Request request = new Request();
+
+    @Test
+    void parsesEveryField() {
+        request.parse("ADD LECTURE|Tuesday|14:00|CS101|Networks|120|7");
+
+        assertEquals(Request.Action.ADD_LECTURE, request.action);
+        assertEquals(7, request.fieldCount());
+        assertEquals(1, request.dayIndex);
+        assertEquals(14 * 60, request.minute);
+        assertEquals(5, request.slotIndex);
+        assertEquals(120, request.minutes);
+        assertEquals("Tuesday", request.day());
+        assertEquals("14:00", request.time());
+        assertEquals("CS101", request.room());
+        assertEquals("Networks", request.module());
+        assertEquals("7", request.field(Request.VERSION_FIELD));
+    }
+
+    @Test
+    void actionIsCaseInsensitive() {
+        assertSame(Request.Action.REMOVE_LECTURE, request.parse("remove lecture|Monday|09:00|R1|").action);
+        assertSame(Request.Action.FIND_ALL_FREE, request.parse("Find All Free|Monday|||").action);
+        assertNull(request.parse("REMOVE|Monday|09:00|R1|").action);
+        assertNull(request.parse("").action);
+    }
+
+    @Test
+    void missingFieldsAreEmpty() {
+        request.parse("DISPLAY SCHEDULE");
+
+        assertEquals(Request.Action.DISPLAY_SCHEDULE, request.action);
+        assertEquals(1, request.fieldCount());
+        assertEquals(-1, request.dayIndex);
+        assertEquals(-1, request.minute);
+        assertEquals(0, request.minutes);
+        assertEquals("", request.room());
+        assertEquals("", request.field(Request.VERSION_FIELD));
+    }
+
+    @Test
+    void badDayAndTimeKeepTheirText() {
+        request.parse("ADD LECTURE|Someday|25:00|R1|M1");
+
+        assertEquals(-1, request.dayIndex);
+        assertEquals(-1, request.minute);
+        assertEquals(-1, request.slotIndex);
+        assertEquals("Someday", request.day());
+        assertEquals("25:00", request.time());
+    }
+
+    @Test
+    void timeOutsideTeachingHoursOrBetweenSlots() {
+        request.parse("ADD LECTURE|Monday|8:00|R1|M1");
+        assertEquals(8 * 60, request.minute);
+        assertEquals(-1, request.slotIndex);
+
+        request.parse("ADD LECTURE|Monday|18:00|R1|M1");
+        assertEquals(-1, request.slotIndex);
+
+        request.parse("ADD LECTURE|Monday|10:30|R1|M1");
+        assertEquals(10 * 60 + 30, request.minute);
+        assertEquals(-1, request.slotIndex);
+    }
+
+    @Test
+    void lengthThatIsNotANumber() {
+        assertEquals(-1, request.parse("ADD LECTURE|Monday|09:00|R1|M1|90m").minutes);
+        assertEquals(0, request.parse("ADD LECTURE|Monday|09:00|R1|M1||3").minutes);
+    }
+
+    @Test
+    void fieldsPastTheLastAreIgnored() {
+        request.parse("ADD LECTURE|Monday|09:00|R1|M1|60|3|extra");
+
+        assertEquals(Request.MAX_FIELDS, request.fieldCount());
+        assertEquals("3", request.field(Request.VERSION_FIELD));
+    }
+
+    @Test
+    void parsesAfterAPipelineTag() {
+        String line = "42#MODULE SCHEDULE|||R1|M1";
+        request.parse(line, line.indexOf('#') + 1);
+
+        assertEquals(Request.Action.MODULE_SCHEDULE, request.action);
+        assertEquals("M1", request.module());
+        assertEquals("MODULE SCHEDULE|||R1|M1", request.text());
+    }
+
+    @Test
+    void reuseForgetsThePreviousLine() {
+        request.parse("ADD LECTURE|Friday|17:00|R1|M1|60|9");
+        request.parse("STOP");
+
+        assertEquals(Request.Action.STOP, request.action);
+        assertEquals(1, request.fieldCount());
+        assertEquals("", request.module());
+        assertEquals(0, request.minutes);
+    }
+}
@@ -0,0 +1,155 @@
+package com.mycompany.tcpechoserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// Requests are parsed against TCPEchoServer.schedule, so each test gets a fresh one
+class ScheduleBatchTest {
+    private final TermCalendar calendar = TermCalendar.DEFAULT;
+    private Timetable saved;
+    private int savedLimit;
+    private Timetable schedule;
+
+    @BeforeEach
+    void freshSchedule() {
+        saved = TCPEchoServer.schedule;
+        savedLimit = TCPEchoServer.moduleLimit;
+        schedule = TCPEchoServer.schedule = new Timetable(calendar);
+        TCPEchoServer.moduleLimit = TCPEchoServer.DEFAULT_MODULE_LIMIT;
+    }
+
+    @AfterEach
+    void restoreSchedule() {
+        TCPEchoServer.schedule = saved;
+        TCPEchoServer.moduleLimit = savedLimit;
+    }
+
+    private void book(int day, int slotOfDay, String room, String module) {
+        schedule.put(calendar.lecture(day, slotOfDay, 1, room, module));
+    }
+
+    private String batch(long expected, String... lines) {
+        ScheduleBatch batch = new ScheduleBatch(schedule, expected, false);
+        for (String line : lines) {
+            batch.add(line);
+        }
+        return batch.apply();
+    }
+
+    private static String single(String line) {
+        return ScheduleBatch.applyOne(new Request().parse(line));
+    }
+
+    private List<String> lectures() {
+        List<String> lectures = new ArrayList<>();
+        for (int slot = 0; slot < schedule.capacity(); slot++) {
+            for (Lecture lecture : schedule.startingAt(slot)) {
+                lectures.add(lecture.toString());
+            }
+        }
+        return lectures;
+    }
+
+    @Test
+    void appliesEveryOperationAsOneVersion() {
+        book(0, 0, "R1", "M1");
+
+        String response = batch(ScheduleBatch.ANY_VERSION,
+                "ADD LECTURE|Monday|10:00|R2|M2",
+                "MOVE|Monday|09:00|R1|Tuesday@11:00",
+                "ADD LECTURE|Monday|09:00|R1|M3");
+
+        assertEquals("Batch applied: 3 operations | Version: 2", response);
+        assertEquals(2, schedule.version());
+        assertNotNull(schedule.get(schedule.slot(0, 1), "R2"));
+        assertEquals("M1", schedule.get(schedule.slot(1, 2), "R1").module);
+        assertEquals("M3", schedule.get(schedule.slot(0, 0), "R1").module);
+    }
+
+    @Test
+    void aClashChangesNothing() {
+        book(0, 0, "R1", "M1");
+        List<String> before = lectures();
+
+        String response = batch(ScheduleBatch.ANY_VERSION,
+                "ADD LECTURE|Monday|10:00|R2|M2",
+                "MOVE|Monday|09:00|R1|Monday@10:00@R2");
+
+        assertEquals("ERROR: Nothing changed. Operation 2: Room R2 is already booked at 10:00 on Monday.", response);
+        assertEquals(before, lectures());
+        assertEquals(1, schedule.version());
+        assertFalse(schedule.hasModule("M2"));
+    }
+
+    @Test
+    void anInvalidOperationChangesNothing() {
+        String response = batch(ScheduleBatch.ANY_VERSION,
+                "ADD LECTURE|Monday|10:00|R2|M2",
+                "DISPLAY SCHEDULE||||",
+                "ADD LECTURE|Monday|11:00|R2|M2");
+
+        assertEquals("ERROR: Nothing changed. Operation 2: Only ADD LECTURE, REMOVE LECTURE, MOVE and SWAP can be batched, not DISPLAY SCHEDULE.", response);
+        assertTrue(schedule.isEmpty());
+        assertEquals(0, schedule.version());
+    }
+
+    @Test
+    void operationsSeeTheOnesBeforeThem() {
+        book(0, 0, "R1", "M1");
+        book(0, 1, "R1", "M2");
+
+        String response = batch(ScheduleBatch.ANY_VERSION,
+                "REMOVE LECTURE|Monday|09:00|R1|",
+                "ADD LECTURE|Monday|09:00|R1|M3",
+                "SWAP|Monday|09:00|R1|Monday@10:00@R1");
+
+        assertEquals("Batch applied: 3 operations | Version: 3", response);
+        assertEquals("M2", schedule.get(schedule.slot(0, 0), "R1").module);
+        assertEquals("M3", schedule.get(schedule.slot(0, 1), "R1").module);
+        assertFalse(schedule.hasModule("M1"));
+    }
+
+    @Test
+    void aStaleVersionChangesNothing() {
+        book(0, 0, "R1", "M1");
+
+        String response = batch(0, "REMOVE LECTURE|Monday|09:00|R1|");
+
+        assertEquals("ERROR: Version conflict: the schedule is at version 1, not 0. Nothing changed.", response);
+        assertNotNull(schedule.get(schedule.slot(0, 0), "R1"));
+        assertEquals("Batch applied: 1 operations | Version: 2", batch(1, "REMOVE LECTURE|Monday|09:00|R1|"));
+    }
+
+    @Test
+    void moduleLimitIsCheckedOnTheEndState() {
+        for (int m = 1; m <= TCPEchoServer.DEFAULT_MODULE_LIMIT; m++) {
+            book(0, m, "R1", "M" + m);
+        }
+
+        assertEquals("ERROR: Cannot add more than 5 modules.", single("ADD LECTURE|Tuesday|09:00|R1|M6"));
+        String response = batch(ScheduleBatch.ANY_VERSION,
+                "REMOVE LECTURE|Monday|10:00|R1|",
+                "ADD LECTURE|Tuesday|09:00|R1|M6");
+        assertEquals("Batch applied: 2 operations | Version: 6", response);
+        assertEquals(5, schedule.moduleCount());
+    }
+
+    @Test
+    void versionedRemoveReportsTheModuleRemoved() {
+        book(0, 0, "R1", "M1");
+        book(0, 1, "R1", "M1");
+
+        assertEquals("Lecture removed from Monday at 09:00 | Version: 3", single("REMOVE LECTURE|Monday|09:00|R1|||2"));
+        assertEquals("Lecture removed and module 'M1' removed from system. | Version: 4", single("REMOVE LECTURE|Monday|10:00|||||3"));
+        assertNull(schedule.get(schedule.slot(0, 1), "R1"));
+    }
+}
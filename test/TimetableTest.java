@@ -0,0 +1,142 @@
+package com.mycompany.tcpechoserver;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class TimetableTest {
+    // Two weeks of 30-minute slots: 10 days of 18 slots, so days cross bitmap words
+    private final TermCalendar calendar = new TermCalendar(2, 9 * 60, 18 * 60, 30);
+    private final Timetable schedule = new Timetable(calendar);
+
+    private Lecture lecture(int day, int slotOfDay, int length, String room, String module) {
+        return calendar.lecture(day, slotOfDay, length, room, module);
+    }
+
+    @Test
+    void putAndRemove() {
+        Lecture lecture = lecture(3, 16, 2, "R1", "M1");
+        schedule.put(lecture);
+
+        assertSame(lecture, schedule.get(lecture.slot, "R1"));
+        assertEquals(1, schedule.size());
+        assertTrue(schedule.hasModule("M1"));
+        assertEquals(1, schedule.version());
+        assertFalse(schedule.isRoomFree("R1", lecture.slot + 1, 1));
+        assertTrue(schedule.isRoomFree("R1", lecture.slot + 2, 1));
+
+        assertSame(lecture, schedule.remove(lecture.slot, "R1"));
+        assertNull(schedule.get(lecture.slot, "R1"));
+        assertEquals(0, schedule.size());
+        assertFalse(schedule.hasModule("M1"));
+        assertEquals(0, schedule.moduleCount());
+        assertEquals(2, schedule.version());
+        assertTrue(schedule.isRoomFree("R1", lecture.slot, 2));
+    }
+
+    @Test
+    void removeMissingLecture() {
+        assertNull(schedule.remove(schedule.slot(0, 0), "R1"));
+        assertEquals(0, schedule.version());
+    }
+
+    @Test
+    void startingAtIsSortedByRoom() {
+        schedule.put(lecture(0, 0, 1, "R2", "M1"));
+        schedule.put(lecture(0, 0, 1, "R1", "M2"));
+
+        Lecture[] starting = schedule.startingAt(schedule.slot(0, 0));
+        assertEquals(2, starting.length);
+        assertEquals("R1", starting[0].room);
+        assertEquals("R2", starting[1].room);
+        assertEquals(List.of("R1", "R2"), schedule.knownRooms());
+    }
+
+    @Test
+    void bookingOverALectureThrows() {
+        schedule.put(lecture(1, 4, 3, "R1", "M1"));
+
+        assertThrows(IllegalStateException.class, () -> schedule.put(lecture(1, 6, 1, "R1", "M2")));
+        assertEquals(1, schedule.size());
+        assertFalse(schedule.hasModule("M2"));
+    }
+
+    @Test
+    void putAllIsOneVersion() {
+        long version = schedule.putAll(List.of(lecture(0, 0, 1, "R1", "M1"), lecture(9, 17, 1, "R1", "M1")));
+
+        assertEquals(1, version);
+        assertEquals(2, schedule.size());
+        assertEquals(2, schedule.lectureCount("M1"));
+        assertEquals(1, schedule.snapshot().version);
+    }
+
+    @Test
+    void replaceMovesLecturesInOneVersion() {
+        Lecture first = lecture(2, 0, 2, "R1", "M1");
+        Lecture second = lecture(2, 2, 2, "R1", "M2");
+        schedule.putAll(List.of(first, second));
+
+        // Each takes the other's place
+        Lecture firstMoved = lecture(2, 2, 2, "R1", "M1");
+        Lecture secondMoved = lecture(2, 0, 2, "R1", "M2");
+        long version = schedule.replace(List.of(first, second), List.of(firstMoved, secondMoved));
+
+        assertEquals(2, version);
+        assertSame(secondMoved, schedule.get(schedule.slot(2, 0), "R1"));
+        assertSame(firstMoved, schedule.get(schedule.slot(2, 2), "R1"));
+        assertEquals(List.of(firstMoved), schedule.lecturesForModule("M1"));
+        assertEquals(2, schedule.moduleCount());
+    }
+
+    @Test
+    void busyBitmapsSpanWords() {
+        // Day 3 covers slots 54-71, so this lecture runs from word 0 into word 1
+        Lecture lecture = lecture(3, 6, 6, "R1", "M1");
+        schedule.put(lecture);
+
+        long[] busy = schedule.roomBusy("R1");
+        for (int slot = 0; slot < schedule.capacity(); slot++) {
+            boolean set = (busy[slot >>> 6] & 1L << slot) != 0;
+            assertEquals(slot >= lecture.slot && slot < lecture.slot + 6, set, "slot " + slot);
+        }
+        assertArrayEquals(busy, schedule.moduleBusy("M1"));
+        assertArrayEquals(new long[busy.length], schedule.roomBusy("R2"));
+
+        schedule.remove(lecture.slot, "R1");
+        assertArrayEquals(new long[busy.length], schedule.roomBusy("R1"));
+    }
+
+    @Test
+    void freeStartsLeaveRoomForTheLength() {
+        schedule.put(lecture(0, 4, 2, "R1", "M1"));
+        schedule.put(lecture(0, 10, 1, "R2", "M2"));
+
+        long[] free = schedule.freeStarts("R1", "M2", schedule.startMask(0, 0, 0, 3), 3);
+        for (int slotOfDay = 0; slotOfDay < calendar.slotsPerDay; slotOfDay++) {
+            int slot = schedule.slot(0, slotOfDay);
+            // R1 is busy in 4-5, M2 in 10, and a lecture must end by slot 18
+            boolean expected = slotOfDay + 3 <= 4 || (slotOfDay >= 6 && slotOfDay + 3 <= 10) || (slotOfDay >= 11 && slotOfDay + 3 <= 18);
+            assertEquals(expected, (free[slot >>> 6] & 1L << slot) != 0, "slot of day " + slotOfDay);
+        }
+        assertEquals(0, free[1] | free[2]);
+    }
+
+    @Test
+    void runStartsFindsRuns() {
+        long[] free = {~0L, 0b111L};
+        long[] starts = Timetable.runStarts(free, 4);
+        // Slots 0-66 are free, so a run of 4 may start in 0-63
+        assertEquals(~0L, starts[0]);
+        assertEquals(0, starts[1]);
+
+        assertArrayEquals(free, Timetable.runStarts(free, 1));
+    }
+}
@@ -0,0 +1,130 @@
+package com.mycompany.tcpechoserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class WriteAheadLogTest {
+    private final TermCalendar calendar = TermCalendar.DEFAULT;
+
+    @TempDir
+    Path dir;
+
+    private Path base() {
+        return dir.resolve("schedule.wal");
+    }
+
+    private Path segment(int n) {
+        return dir.resolve("schedule.wal." + n);
+    }
+
+    private Timetable open(long checkpointVersion) throws IOException {
+        Timetable schedule = new Timetable(calendar);
+        schedule.setLog(WriteAheadLog.open(base(), WriteAheadLog.Durability.SYNC, schedule, checkpointVersion));
+        return schedule;
+    }
+
+    private Lecture lecture(int day, int slotOfDay, String room, String module) {
+        return calendar.lecture(day, slotOfDay, 1, room, module);
+    }
+
+    @Test
+    void replaysEveryKindOfRecord() throws IOException {
+        Timetable schedule = open(0);
+        schedule.put(lecture(0, 3, "R1", "M1"));
+        schedule.putAll(List.of(lecture(1, 5, "R1", "M2"), lecture(2, 0, "R2", "M2")));
+        schedule.replace(List.of(lecture(2, 0, "R2", "M2")), List.of(lecture(2, 4, "R2", "M2")));
+        schedule.put(lecture(3, 0, "R3", "M3"));
+        schedule.remove(schedule.slot(3, 0), "R3");
+        schedule.compactDay(0);
+        schedule.log().close();
+
+        Timetable replayed = open(0);
+        assertEquals(6, replayed.log().replayedRecords);
+        assertEquals(schedule.version(), replayed.version());
+        assertEquals(3, replayed.size());
+        assertNotNull(replayed.get(replayed.slot(0, 0), "R1")); // compacted from slot 3
+        assertNotNull(replayed.get(replayed.slot(1, 5), "R1"));
+        assertNotNull(replayed.get(replayed.slot(2, 4), "R2"));
+        assertFalse(replayed.hasModule("M3"));
+        replayed.log().close();
+    }
+
+    @Test
+    void skipsRecordsCoveredByACheckpoint() throws IOException {
+        Timetable schedule = open(0);
+        schedule.put(lecture(0, 0, "R1", "M1"));
+        schedule.put(lecture(0, 1, "R1", "M1"));
+        schedule.log().close();
+
+        Timetable replayed = open(1);
+        assertEquals(1, replayed.log().replayedRecords);
+        assertNull(replayed.get(replayed.slot(0, 0), "R1"));
+        assertNotNull(replayed.get(replayed.slot(0, 1), "R1"));
+        assertEquals(2, replayed.version());
+        replayed.log().close();
+    }
+
+    @Test
+    void dropsATornRecord() throws IOException {
+        long intact = writeTwoLectures();
+        try (RandomAccessFile file = new RandomAccessFile(segment(1).toFile(), "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        assertOnlyFirstLecture(intact);
+    }
+
+    @Test
+    void dropsARecordWithABadChecksum() throws IOException {
+        long intact = writeTwoLectures();
+        try (RandomAccessFile file = new RandomAccessFile(segment(1).toFile(), "rw")) {
+            file.seek(file.length() - 1);
+            int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 1);
+        }
+
+        assertOnlyFirstLecture(intact);
+    }
+
+    // Returns the length of segment 1 holding only the first lecture
+    private long writeTwoLectures() throws IOException {
+        Timetable schedule = open(0);
+        schedule.put(lecture(0, 0, "R1", "M1"));
+        long intact = Files.size(segment(1));
+        schedule.put(lecture(0, 1, "R1", "M1"));
+        schedule.log().close();
+        assertTrue(Files.size(segment(1)) > intact);
+        return intact;
+    }
+
+    private void assertOnlyFirstLecture(long intact) throws IOException {
+        Timetable replayed = open(0);
+        assertEquals(1, replayed.log().replayedRecords);
+        assertEquals(1, replayed.size());
+        assertNotNull(replayed.get(replayed.slot(0, 0), "R1"));
+        assertEquals(1, replayed.version());
+
+        // The bad tail is cut off, and new records go to a new segment
+        assertEquals(intact, Files.size(segment(1)));
+        replayed.put(lecture(0, 1, "R1", "M1"));
+        replayed.log().close();
+        assertTrue(Files.size(segment(2)) > 0);
+
+        Timetable again = open(0);
+        assertEquals(2, again.size());
+        assertEquals(2, again.version());
+        again.log().close();
+    }
+}